@@ -24,17 +24,30 @@ import io.co.util.IoUtils;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import static io.co.util.LogUtils.*;
 
 public class CoContext implements AutoCloseable, SchedulerProvider {
 
+    /** The priority levels of the coroutine, the scheduler serves the ready ones of
+     * a higher level first, e.g. health checks or admin commands, and ages the lower
+     * ones to prevent starvation.
+     */
+    public static final int PRIORITY_HIGH   = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW    = 2;
+    public static final int PRIORITY_LEVELS = 3;
+
     private final CoroutineRunner runner;
-    private final Scheduler scheduler;
+    private volatile Scheduler scheduler;
     private int suspendTick, lastTick;
+    private volatile int priority = PRIORITY_NORMAL;
 
     private Object attachment;
     private AutoCloseable cleaner;
+    private Consumer<? super CoContext> recycler;
+    private final Runnable resumeTask = this::doResume;
 
     public CoContext(CoroutineRunner runner, Scheduler scheduler)
             throws NullPointerException {
@@ -69,6 +82,33 @@ public class CoContext implements AutoCloseable, SchedulerProvider {
         return this.scheduler;
     }
 
+    public int getPriority() {
+        return this.priority;
+    }
+
+    /** Set the priority of this coroutine.
+     *
+     * @param priority one of PRIORITY_HIGH, PRIORITY_NORMAL and PRIORITY_LOW
+     * @throws IllegalArgumentException if the priority isn't a level
+     */
+    public void setPriority(int priority) throws IllegalArgumentException {
+        if (priority < PRIORITY_HIGH || priority >= PRIORITY_LEVELS) {
+            throw new IllegalArgumentException("priority " + priority);
+        }
+        this.priority = priority;
+    }
+
+    /** Move this context to another scheduler, only called by the scheduler when
+     * migrating the suspended coroutine, and the coroutine is resumed in the new
+     * scheduler since then.
+     *
+     * @param scheduler the new scheduler
+     */
+    public void setScheduler(Scheduler scheduler) throws NullPointerException {
+        if (scheduler == null) throw new NullPointerException();
+        this.scheduler = scheduler;
+    }
+
     public Object attach(Object attachment) {
         Object old = this.attachment;
         this.attachment = attachment;
@@ -95,6 +135,32 @@ public class CoContext implements AutoCloseable, SchedulerProvider {
         return this.cleaner;
     }
 
+    /** Set the recycler that takes this context back after the coroutine completed
+     * and this context closed, e.g. the context pool of the scheduler.
+     *
+     * @param recycler the recycler, or null if this context isn't reused
+     */
+    public void recycler(Consumer<? super CoContext> recycler) {
+        this.recycler = recycler;
+    }
+
+    /** Reset the state of this completed context for reusing it in the scheduler.
+     * The runner must be able to run a new coroutine, and the caller must not hold
+     * this context after it completed.
+     *
+     * @param scheduler the scheduler that runs the next coroutine
+     * @param cleaner the cleaner of the next coroutine
+     */
+    public void reset(Scheduler scheduler, AutoCloseable cleaner)
+            throws NullPointerException {
+        if (scheduler == null) throw new NullPointerException();
+        this.scheduler = scheduler;
+        this.attachment = null;
+        this.cleaner = cleaner;
+        this.priority = PRIORITY_NORMAL;
+        this.suspendTick = this.lastTick = 0;
+    }
+
     @Override
     public void close() {
         IoUtils.close(cleaner());
@@ -132,7 +198,7 @@ public class CoContext implements AutoCloseable, SchedulerProvider {
      *
      * @param co the resumed continuation
      * @throws IllegalStateException
-     *   if the coroutine state error, or the scheduler task queue is full
+     *   if the coroutine state error, or the scheduler can't accept the resume
      */
     public static void resume(Continuation co) throws IllegalStateException {
         CoContext context = (CoContext)co.getContext();
@@ -143,28 +209,43 @@ public class CoContext implements AutoCloseable, SchedulerProvider {
      * @threadsafe
      *
      * @throws IllegalStateException
-     *   if the coroutine state error, or the scheduler task queue is full
+     *   if the coroutine state error, or the scheduler can't accept the resume
      */
     public void resume() throws IllegalStateException {
-        Runnable resumeTask = () -> {
-            if (this.lastTick + 1 != this.suspendTick/*once*/) {
-                String error = "Coroutine state corrupted when resuming";
-                throw new IllegalStateException(error);
-            }
+        this.scheduler.dispatch(this.resumeTask, this.priority);
+    }
 
-            try {
-                CoroutineRunner coRunner = coRunner();
-                if (!coRunner.execute()) {
-                    debug("Coroutine completed then close %s", this);
-                    IoUtils.close(this);
-                }
-            } catch (CoroutineException e) {
-                error("Coroutine failed: " + this, e);
+    /** Run the coroutine of this context till the first suspend point, only called
+     * by the scheduler when forking it.
+     */
+    public void start() {
+        execute();
+    }
+
+    private void doResume() throws IllegalStateException {
+        if (this.lastTick + 1 != this.suspendTick/*once*/) {
+            String error = "Coroutine state corrupted when resuming";
+            throw new IllegalStateException(error);
+        }
+
+        execute();
+    }
+
+    private void execute() {
+        try {
+            CoroutineRunner coRunner = coRunner();
+            if (!coRunner.execute()) {
+                debug("Coroutine completed then close %s", this);
                 IoUtils.close(this);
+                Consumer<? super CoContext> recycler = this.recycler;
+                if (recycler != null) {
+                    recycler.accept(this);
+                }
             }
-        };
-
-        this.scheduler.execute(resumeTask);
+        } catch (CoroutineException e) {
+            error("Coroutine failed: " + this, e);
+            IoUtils.close(this);
+        }
     }
 
 }
@@ -17,6 +17,8 @@
 package io.co;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+
 import com.offbynull.coroutines.user.Continuation;
 
 /**
@@ -30,6 +32,9 @@ public abstract class CoInputStream implements Closeable {
     
     protected final static int BUFFER_SIZE = Integer.getInteger("io.co.inBuffer.size", 4096);
 
+    // The reused buffer for copying into the direct buffers, lazily allocated
+    private byte[] copyBuffer;
+
     public int available(Continuation co) throws IOException {
         return 0;
     }
@@ -59,6 +64,78 @@ public abstract class CoInputStream implements Closeable {
         return i;
     }
 
+    /** Read the bytes into the remaining of the dst buffer.
+     *
+     * @param co the reading coroutine
+     * @param dst the destination buffer
+     * @return the number of bytes read, 0 if the dst has no remaining, or -1 if end
+     *  of stream
+     * @throws IOException if IO error or read timeout
+     */
+    public int read(Continuation co, ByteBuffer dst) throws IOException {
+        final int len = dst.remaining();
+        if (len == 0) {
+            return 0;
+        }
+
+        if (dst.hasArray()) {
+            final int pos = dst.position();
+            final int n = read(co, dst.array(), dst.arrayOffset() + pos, len);
+            if (n > 0) {
+                dst.position(pos + n);
+            }
+            return n;
+        }
+        byte[] b = this.copyBuffer;
+        if (b == null) {
+            this.copyBuffer = b = new byte[BUFFER_SIZE];
+        }
+        final int n = read(co, b, 0, Math.min(b.length, len));
+        if (n > 0) {
+            dst.put(b, 0, n);
+        }
+        return n;
+    }
+
+    /** Read the bytes into the remaining of the dst buffers in order.
+     *
+     * @param co the reading coroutine
+     * @param dsts the destination buffers
+     * @return the number of bytes read, 0 if the dsts have no remaining, or -1 if
+     *  end of stream
+     * @throws IOException if IO error or read timeout
+     */
+    public long read(Continuation co, ByteBuffer[] dsts) throws IOException {
+        for (ByteBuffer dst : dsts) {
+            if (dst.hasRemaining()) {
+                return read(co, dst);
+            }
+        }
+        return 0;
+    }
+
+    /** Read the bytes until the dst buffer full.
+     *
+     * @param co the reading coroutine
+     * @param dst the destination buffer
+     * @return the number of bytes read
+     * @throws EOFException if end of stream before the dst full
+     * @throws IOException if IO error or read timeout
+     */
+    public int readFully(Continuation co, ByteBuffer dst) throws IOException {
+        int i = 0;
+
+        while (dst.hasRemaining()) {
+            int n = read(co, dst);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            i += n;
+        }
+
+        return i;
+    }
+
     public int readFully(Continuation co, byte[] b) throws IOException {
         return readFully(co, b, 0, b.length);
     }
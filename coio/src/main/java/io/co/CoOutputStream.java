@@ -18,6 +18,8 @@ package io.co;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import com.offbynull.coroutines.user.Continuation;
 
@@ -31,6 +33,9 @@ import com.offbynull.coroutines.user.Continuation;
 public abstract class CoOutputStream implements Closeable {
     
     protected final static int BUFFER_SIZE = Integer.getInteger("io.co.outBuffer.size", 4096);
+
+    // The reused buffer for copying the direct buffers and files, lazily allocated
+    private byte[] copyBuffer;
     
     public abstract void write(Continuation co, int b) throws IOException;
     
@@ -39,11 +44,97 @@ public abstract class CoOutputStream implements Closeable {
     }
     
     public void write(Continuation co, byte[] b, int off, int len) throws IOException {
-        for(;off < len;) {
+        for(final int end = off + len; off < end;) {
             write(co, b[off++]);
         }
     }
+
+    protected byte[] copyBuffer() {
+        byte[] b = this.copyBuffer;
+        if (b == null) {
+            this.copyBuffer = b = new byte[BUFFER_SIZE];
+        }
+        return b;
+    }
     
+    /** Write the remaining of the src buffer.
+     *
+     * @param co the writing coroutine
+     * @param src the source buffer
+     * @throws IOException if IO error
+     */
+    public void write(Continuation co, ByteBuffer src) throws IOException {
+        final int len = src.remaining();
+        if (len == 0) {
+            return;
+        }
+
+        if (src.hasArray()) {
+            final int pos = src.position();
+            write(co, src.array(), src.arrayOffset() + pos, len);
+            src.position(pos + len);
+            return;
+        }
+        final byte[] b = copyBuffer();
+        while (src.hasRemaining()) {
+            final int n = Math.min(b.length, src.remaining());
+            src.get(b, 0, n);
+            write(co, b, 0, n);
+        }
+    }
+
+    /** Write the remaining of the src buffers in order.
+     *
+     * @param co the writing coroutine
+     * @param srcs the source buffers
+     * @throws IOException if IO error
+     */
+    public void write(Continuation co, ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            write(co, src);
+        }
+    }
+
+    /** Write the bytes of the src file region after the buffered bytes, it returns
+     * after the region written or the end of the file reached. This implementation
+     * copies the file by a buffer.
+     *
+     * @param co the writing coroutine
+     * @param src the source file
+     * @param position the file position of the region
+     * @param count the max number of bytes in the region
+     * @return the number of bytes written
+     * @throws IOException if IO error
+     * @throws IllegalArgumentException if position or count negative
+     */
+    public long transferFrom(Continuation co, FileChannel src, long position, long count)
+            throws IOException, IllegalArgumentException {
+        checkRegion(position, count);
+        final byte[] b = copyBuffer();
+        final ByteBuffer buf = ByteBuffer.wrap(b);
+        long n = 0;
+        while (n < count) {
+            buf.clear().limit((int)Math.min(b.length, count - n));
+            final int i = src.read(buf, position + n);
+            if (i == -1) {
+                break;
+            }
+            write(co, b, 0, i);
+            n += i;
+        }
+        return n;
+    }
+
+    protected static void checkRegion(long position, long count)
+            throws IllegalArgumentException {
+        if (position < 0L) {
+            throw new IllegalArgumentException("position " + position);
+        }
+        if (count < 0L) {
+            throw new IllegalArgumentException("count " + count);
+        }
+    }
+
     public abstract void flush(Continuation co) throws IOException;
     
     @Override
@@ -32,7 +32,7 @@ import com.offbynull.coroutines.user.Continuation;
  */
 public abstract class CoServerSocket implements CoChannel {
     
-    static final int BACKLOG_DEFAULT = Integer.getInteger("io.co.backlog", 4096);
+    public static final int BACKLOG_DEFAULT = Integer.getInteger("io.co.backlog", 4096);
     
     protected CoServerSocket() {
 
@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import com.offbynull.coroutines.user.Continuation;
 
@@ -146,6 +148,30 @@ public abstract class CoSocket implements CoChannel {
     public abstract int readFully(Continuation co, byte[] b, int off, int len)
             throws IOException;
 
+    /** Read the bytes into the remaining of the dst buffer, a direct dst buffer is
+     * read from the channel without copying if no buffered bytes.
+     *
+     * @param co the reading coroutine
+     * @param dst the destination buffer
+     * @return the number of bytes read, 0 if the dst has no remaining, or -1 if end
+     *  of stream
+     * @throws IOException if IO error or read timeout
+     */
+    public abstract int read(Continuation co, ByteBuffer dst) throws IOException;
+
+    public abstract int readFully(Continuation co, ByteBuffer dst) throws IOException;
+
+    /** Read the bytes into the dst buffers in order, by a scattering read from the
+     * channel if no buffered bytes.
+     *
+     * @param co the reading coroutine
+     * @param dsts the destination buffers
+     * @return the number of bytes read, 0 if the dsts have no remaining, or -1 if
+     *  end of stream
+     * @throws IOException if IO error or read timeout
+     */
+    public abstract long read(Continuation co, ByteBuffer[] dsts) throws IOException;
+
     public abstract long skip(Continuation co, final long n) throws IOException;
     
     public abstract CoInputStream getInputStream();
@@ -157,6 +183,39 @@ public abstract class CoSocket implements CoChannel {
     public abstract void write(Continuation co, byte[] b, int off, int len)
             throws IOException;
 
+    /** Write the remaining of the src buffer, a big src buffer is written to the
+     * channel directly after the buffered bytes flushed.
+     *
+     * @param co the writing coroutine
+     * @param src the source buffer
+     * @throws IOException if IO error
+     */
+    public abstract void write(Continuation co, ByteBuffer src) throws IOException;
+
+    /** Write the buffered bytes and the src buffers to the channel by the gathering
+     * writes, it returns after all src bytes written.
+     *
+     * @param co the writing coroutine
+     * @param srcs the source buffers
+     * @throws IOException if IO error
+     */
+    public abstract void write(Continuation co, ByteBuffer[] srcs) throws IOException;
+
+    /** Write the bytes of the src file region after the buffered bytes, by the zero
+     * copy FileChannel.transferTo() if supported, e.g. sendfile on Linux. It returns
+     * after the region written or the end of the file reached.
+     *
+     * @param co the writing coroutine
+     * @param src the source file
+     * @param position the file position of the region
+     * @param count the max number of bytes in the region
+     * @return the number of bytes written
+     * @throws IOException if IO error
+     * @throws IllegalArgumentException if position or count negative
+     */
+    public abstract long transferFrom(Continuation co, FileChannel src, long position, long count)
+            throws IOException, IllegalArgumentException;
+
     public abstract void flush(Continuation co) throws IOException;
     
     public abstract CoOutputStream getOutputStream();
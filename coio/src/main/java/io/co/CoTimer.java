@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co;
+
+/**
+ * The handle of a task scheduled in the scheduler.
+ *
+ * @author little-pan
+ * @since 2021-04-22
+ *
+ */
+public interface CoTimer {
+
+    boolean isCanceled();
+
+    /** Cancel this timer, and it's a noop if the timer had been canceled.
+     * @threadsafe
+     */
+    void cancel();
+
+}
@@ -20,6 +20,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.offbynull.coroutines.user.Continuation;
 import com.offbynull.coroutines.user.Coroutine;
@@ -46,15 +47,88 @@ public interface Scheduler extends Runnable, SchedulerProvider {
     CoContext fork(Coroutine c);
 
     CoContext fork(Coroutine c, AutoCloseable cleaner);
+
+    /** Fork the coroutine with the priority.
+     *
+     * @param c the coroutine
+     * @param cleaner the cleaner closed when the coroutine completed, can be null
+     * @param priority one of CoContext.PRIORITY_HIGH, PRIORITY_NORMAL and PRIORITY_LOW
+     * @return the context of the coroutine
+     * @throws IllegalArgumentException if the priority isn't a level
+     */
+    CoContext fork(Coroutine c, AutoCloseable cleaner, int priority)
+            throws IllegalArgumentException;
     
-    void schedule(Runnable task, long delay) throws NullPointerException;
+    /** Schedule the task to run after the delay. It doesn't wait for the scheduler
+     * when called from another thread.
+     * @threadsafe
+     *
+     * @param task the scheduled task
+     * @param delay the delay in millis
+     * @return the timer handle for canceling the task
+     * @throws NullPointerException if the task is null
+     */
+    CoTimer schedule(Runnable task, long delay) throws NullPointerException;
     
-    void schedule(Runnable task, long delay, long period) throws NullPointerException;
+    /** Schedule the task to run periodically with a fixed delay between the end of
+     * a run and the start of the next run.
+     * @threadsafe
+     *
+     * @param task the scheduled task
+     * @param delay the delay of the first run in millis
+     * @param period the delay of the next runs in millis
+     * @return the timer handle for canceling the task
+     * @throws NullPointerException if the task is null
+     */
+    CoTimer schedule(Runnable task, long delay, long period) throws NullPointerException;
+
+    CoTimer schedule(Runnable task, long delay, TimeUnit unit) throws NullPointerException;
+
+    /** Schedule the task to run periodically at a fixed rate, the n-th run starts
+     * at delay + n * period from the scheduling time, a late run won't shift the
+     * next ones.
+     * @threadsafe
+     *
+     * @param task the scheduled task
+     * @param delay the delay of the first run
+     * @param period the period between the start of the runs
+     * @param unit the time unit of the delay and period
+     * @return the timer handle for canceling the task
+     * @throws NullPointerException if the task is null
+     */
+    CoTimer scheduleAtFixedRate(Runnable task, long delay, long period, TimeUnit unit)
+            throws NullPointerException;
+
+    CoTimer scheduleWithFixedDelay(Runnable task, long delay, long period, TimeUnit unit)
+            throws NullPointerException;
     
     Future<?> execute(Runnable task) throws IllegalStateException;
     
     <V> Future<V> execute(Runnable task, V value) throws IllegalStateException;
 
+    /** Dispatch the task to this scheduler executor without a future, and the task
+     * is run at once if the current thread is the scheduler thread.
+     * @threadsafe
+     *
+     * @param task the dispatched task
+     * @throws IllegalStateException if the scheduler can't accept the task, e.g.
+     *  terminated
+     */
+    void dispatch(Runnable task) throws IllegalStateException;
+
+    /** Dispatch the task with the priority of the coroutine that the task serves, the
+     * scheduler may run the higher priority tasks first.
+     * @threadsafe
+     *
+     * @param task the dispatched task
+     * @param priority one of CoContext.PRIORITY_HIGH, PRIORITY_NORMAL and PRIORITY_LOW
+     * @throws IllegalStateException if the scheduler can't accept the task, e.g.
+     *  terminated
+     */
+    default void dispatch(Runnable task, int priority) throws IllegalStateException {
+        dispatch(task);
+    }
+
     /** Compute the task in this scheduler executor, then wait for it to finish.
      *
      * @param co waiting coroutine
@@ -89,6 +163,16 @@ public interface Scheduler extends Runnable, SchedulerProvider {
     
     void await(Continuation co, long millis);
 
+    /** Suspend the coroutine for the time. The deadline is based on System.nanoTime(),
+     * so that it's not affected by the wall clock adjustment.
+     *
+     * @param co the waiting coroutine
+     * @param time the waiting time
+     * @param unit the time unit, resolution is up to the timer tick
+     *  (property "io.co.timer.tickMicros")
+     */
+    void await(Continuation co, long time, TimeUnit unit);
+
     void attachCurrentThread() throws IllegalStateException;
     
     boolean inScheduler();
@@ -100,6 +184,12 @@ public interface Scheduler extends Runnable, SchedulerProvider {
         }
     }
     
+    /** Close the channel in this scheduler. It doesn't wait for the scheduler
+     * when called from another thread.
+     * @threadsafe
+     *
+     * @param channel the closed channel
+     */
     void close(CoChannel channel);
     
     boolean isTerminated();
@@ -112,4 +202,25 @@ public interface Scheduler extends Runnable, SchedulerProvider {
     
     void shutdown();
 
+    /** Shutdown this scheduler gracefully: stop accepting, let the running coroutines
+     * finish their channels, and terminate when no channel alive and no IO or task in
+     * the quiet period, or force-close the rest channels at the timeout.
+     * @threadsafe
+     *
+     * @param quietPeriod the quiet period before terminating
+     * @param timeout the max time from now to termination
+     * @param unit the time unit of quietPeriod and timeout
+     * @return the termination future
+     * @throws IllegalArgumentException if quietPeriod negative or bigger than timeout
+     */
+    Future<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit)
+            throws IllegalArgumentException;
+
+    /** Returns the future completed when this scheduler terminated.
+     * @threadsafe
+     *
+     * @return the termination future
+     */
+    Future<Void> terminationFuture();
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.util.RuntimeUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * A direct buffer arena of a scheduler, used by its thread only. The buffers are
+ * sliced from the direct slabs into the power of 2 size classes, and kept in a free
+ * stack per class when released, so that the channel IO needn't copy through the
+ * temporary direct buffer of the JDK, and the stream buffers are off the heap.
+ *
+ * <p>The slabs are never freed, and the arena stops growing at the max bytes, then
+ * it allocates the heap buffers that are not pooled. A buffer bigger than the max
+ * size class is also a heap one. The max bytes defaults to a half of the JVM max
+ * direct memory shared by the schedulers of a default group, at most 256MB, and the
+ * arena also stops growing when the direct memory is exhausted. The arena can be
+ * disabled by the system property "io.co.bufferArena" set to false.
+ * </p>
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+class NioBufferArena {
+
+    static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("io.co.bufferArena", "true"));
+    static final int SLAB_SIZE = Integer.getInteger("io.co.bufferArena.slabSize", 1 << 20);
+    static final long MAX_BYTES = Long.getLong("io.co.bufferArena.maxBytes",
+            Math.min(256L << 20, RuntimeUtils.maxDirectMemory() / 2 / NioSchedulerGroup.SIZE));
+    // Size classes: 512B, 1KB, ..., 64KB
+    static final int MIN_CLASS_SHIFT = 9;
+    static final int MAX_CLASS_SHIFT = 16;
+    static final int CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+
+    private final int slabSize;
+    private long maxBytes;
+    private final ByteBuffer[][] free;
+    private final int[] freeSizes;
+    private long slabBytes;
+
+    NioBufferArena() {
+        this(SLAB_SIZE, MAX_BYTES);
+    }
+
+    NioBufferArena(int slabSize, long maxBytes) {
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("slabSize " + slabSize);
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes " + maxBytes);
+        }
+
+        this.slabSize = slabSize;
+        this.maxBytes = maxBytes;
+        this.free = new ByteBuffer[CLASSES][];
+        this.freeSizes = new int[CLASSES];
+        for (int i = 0; i < CLASSES; ++i) {
+            this.free[i] = new ByteBuffer[16];
+        }
+    }
+
+    /** Allocate a cleared buffer that has the capacity of the size class.
+     *
+     * @param size the min capacity
+     * @return a direct buffer of the arena, or a heap buffer if the size too big or
+     *  the arena full
+     */
+    ByteBuffer allocate(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size " + size);
+        }
+
+        final int c = sizeClass(size);
+        if (c == -1 || (this.freeSizes[c] == 0 && !grow(c))) {
+            return ByteBuffer.allocate(size);
+        }
+        final int n = --this.freeSizes[c];
+        final ByteBuffer buf = this.free[c][n];
+        this.free[c][n] = null;
+        buf.clear();
+
+        return buf;
+    }
+
+    /** Release the buffer into the free stack of its size class, it's a noop if the
+     * buffer isn't an arena one.
+     *
+     * @param buf the released buffer
+     */
+    void release(ByteBuffer buf) {
+        if (!buf.isDirect()) {
+            return;
+        }
+        final int capacity = buf.capacity();
+        final int c = sizeClass(capacity);
+        if (c == -1 || classSize(c) != capacity) {
+            return;
+        }
+
+        push(c, buf);
+    }
+
+    /** Returns the direct bytes of the slabs that this arena allocated.
+     *
+     * @return the slab bytes
+     */
+    long getSlabBytes() {
+        return this.slabBytes;
+    }
+
+    int getFreeCount(int size) {
+        int c = sizeClass(size);
+        return c == -1? 0: this.freeSizes[c];
+    }
+
+    private boolean grow(int c) {
+        final int size = classSize(c);
+        final int slab = Math.max(this.slabSize - this.slabSize % size, size);
+        if (this.slabBytes + slab > this.maxBytes) {
+            return false;
+        }
+
+        final ByteBuffer chunk;
+        try {
+            chunk = allocateSlab(slab);
+        } catch (OutOfMemoryError e) {
+            // Direct memory exhausted, e.g. by the other arenas: stop growing, then
+            // fall back to the heap buffers
+            warn("Buffer arena stops at %s bytes: %s", this.slabBytes, e.getMessage());
+            this.maxBytes = this.slabBytes;
+            return false;
+        }
+        this.slabBytes += slab;
+        for (int pos = 0; pos < slab; pos += size) {
+            chunk.limit(pos + size);
+            chunk.position(pos);
+            push(c, chunk.slice());
+        }
+
+        return true;
+    }
+
+    ByteBuffer allocateSlab(int size) throws OutOfMemoryError {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private void push(int c, ByteBuffer buf) {
+        ByteBuffer[] stack = this.free[c];
+        final int n = this.freeSizes[c];
+        if (n == stack.length) {
+            this.free[c] = stack = Arrays.copyOf(stack, n << 1);
+        }
+        stack[n] = buf;
+        this.freeSizes[c] = n + 1;
+    }
+
+    static int sizeClass(int size) {
+        if (size > 1 << MAX_CLASS_SHIFT) {
+            return -1;
+        }
+        if (size <= 1 << MIN_CLASS_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    static int classSize(int c) {
+        return 1 << (c + MIN_CLASS_SHIFT);
+    }
+
+}
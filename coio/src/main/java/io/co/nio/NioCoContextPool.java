@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import io.co.CoContext;
+
+import java.util.function.Consumer;
+
+/**
+ * A pool of the coroutine contexts and runners of a scheduler, for the short-lived
+ * connections that fork a coroutine per connection. The runner of a pooled context
+ * runs a delegate coroutine, so that it can run another coroutine after the last
+ * one completed. A context is taken back only if the coroutine completed normally
+ * in the owner scheduler, and is dropped if the pool is full.
+ *
+ * <p>The pool is used by the owner scheduler thread only. Enable it by the system
+ * property "io.co.contextPool" that is the max pooled context count of each
+ * scheduler, default 0 means not pooled.
+ * </p>
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+class NioCoContextPool implements Consumer<CoContext> {
+
+    static final int SIZE = Integer.getInteger("io.co.contextPool", 0);
+
+    private final NioScheduler scheduler;
+    private final CoContext[] contexts;
+    private int size;
+    private long created;
+    private long reused;
+
+    NioCoContextPool(NioScheduler scheduler, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.scheduler = scheduler;
+        this.contexts = new CoContext[capacity];
+    }
+
+    CoContext acquire(Coroutine c, AutoCloseable cleaner) {
+        final CoContext context;
+        final DelegateCoroutine delegate;
+        if (this.size > 0) {
+            context = this.contexts[--this.size];
+            this.contexts[this.size] = null;
+            context.reset(this.scheduler, cleaner);
+            delegate = (DelegateCoroutine)context.coRunner().getCoroutine();
+            this.reused++;
+        } else {
+            delegate = new DelegateCoroutine();
+            CoroutineRunner runner = new CoroutineRunner(delegate);
+            context = new CoContext(runner, this.scheduler, cleaner);
+            runner.setContext(context);
+            context.recycler(this);
+            this.created++;
+        }
+        delegate.target = c;
+
+        return context;
+    }
+
+    /** Take back the context after its coroutine completed and the context closed.
+     *
+     * @param context the completed context
+     */
+    @Override
+    public void accept(CoContext context) {
+        DelegateCoroutine delegate = (DelegateCoroutine)context.coRunner().getCoroutine();
+        // Release the completed coroutine even if the context is dropped
+        delegate.target = null;
+        if (this.size == this.contexts.length) {
+            return;
+        }
+        // Migrated into another scheduler: not touch the pool from that thread
+        NioScheduler scheduler = this.scheduler;
+        if (context.getScheduler() != scheduler || !scheduler.inScheduler()) {
+            return;
+        }
+        context.attach(null);
+        context.cleaner(null);
+        this.contexts[this.size++] = context;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    long getCreated() {
+        return this.created;
+    }
+
+    long getReused() {
+        return this.reused;
+    }
+
+    static class DelegateCoroutine implements Coroutine {
+
+        private static final long serialVersionUID = 1L;
+
+        Coroutine target;
+
+        @Override
+        public void run(Continuation co) throws Exception {
+            this.target.run(co);
+        }
+    }
+
+}
@@ -19,13 +19,11 @@ package io.co.nio;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
 import com.offbynull.coroutines.user.Continuation;
 
 import io.co.CoInputStream;
-import io.co.util.IoUtils;
 
 /**
  * The NIO implementation of CoInputStream.
@@ -38,55 +36,110 @@ public class NioCoInputStream extends CoInputStream {
 
     final NioCoSocket socket;
     final SocketChannel channel;
-    final Selector selector;
+    // Borrowed from the scheduler buffer arena when reading, and released when
+    // drained or waiting for data, null if idle
     protected ByteBuffer buffer;
+    private final int bufferSize;
+    private boolean closed;
     
-    public NioCoInputStream(NioCoSocket socket, SocketChannel channel, Selector selector) {
-        this(socket, channel, selector, BUFFER_SIZE);
+    public NioCoInputStream(NioCoSocket socket, SocketChannel channel) {
+        this(socket, channel, BUFFER_SIZE);
     }
     
-    public NioCoInputStream(NioCoSocket socket, SocketChannel channel, Selector selector,
-                            int bufferSize) {
+    public NioCoInputStream(NioCoSocket socket, SocketChannel channel, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize " + bufferSize);
+        }
         this.socket  = socket;
         this.channel = channel;
-        this.selector= selector;
-        this.buffer  = ByteBuffer.allocate(bufferSize);
-        this.buffer.flip();
+        this.bufferSize = bufferSize;
+    }
+
+    protected ByteBuffer buffer() throws IOException {
+        ByteBuffer buf = this.buffer;
+        if (buf == null) {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            buf = this.socket.getScheduler().allocateBuffer(this.bufferSize);
+            buf.flip();
+            this.buffer = buf;
+        }
+        return buf;
+    }
+
+    /** Release the buffer into the scheduler buffer arena, so that an idle stream
+     * holds no buffer, e.g. after the buffer drained or when waiting for data.
+     */
+    protected void releaseBuffer() {
+        final ByteBuffer buf = this.buffer;
+        if (buf != null) {
+            this.buffer = null;
+            this.socket.getScheduler().releaseBuffer(buf);
+        }
+    }
+
+    /** Called by the source scheduler when the socket is migrated: the buffer leased
+     * from the source arena is released into it, and the unread bytes are kept in a
+     * heap copy, which is never released into the target arena.
+     */
+    void migrateBuffer() {
+        final ByteBuffer buf = this.buffer;
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        if (buf.hasRemaining()) {
+            ByteBuffer copy = ByteBuffer.allocate(buf.capacity());
+            copy.put(buf).flip();
+            this.buffer = copy;
+        } else {
+            this.buffer = null;
+        }
+        this.socket.getScheduler().releaseBuffer(buf);
     }
 
     @Override
     public int available(Continuation co) throws IOException {
-        final ByteBuffer buf = this.buffer;
+        final ByteBuffer buf = buffer();
         if(buf.hasRemaining()) {
             return buf.remaining();
         }
 
-        buf.clear();
-        while (buf.hasRemaining()) {
-            final int n = this.channel.read(buf);
-            if(n == 0 || n == -1){
-                break;
+        boolean failed = true;
+        try {
+            buf.clear();
+            while (buf.hasRemaining()) {
+                final int n = this.channel.read(buf);
+                if(n == 0 || n == -1){
+                    break;
+                }
+            }
+            buf.flip();
+            failed = false;
+        } finally {
+            if (failed || !buf.hasRemaining()) {
+                releaseBuffer();
             }
         }
-        buf.flip();
 
         return buf.remaining();
     }
     
     @Override
     public int read(Continuation co) throws IOException {
-        final ByteBuffer buf = this.buffer;
-        if(buf.hasRemaining()){
-            return buf.get();
+        ByteBuffer buf = this.buffer;
+        if(buf == null || !buf.hasRemaining()){
+            if (fill(co) == -1) {
+                return -1;
+            }
+            buf = this.buffer;
         }
 
-        buf.clear();
-        final int i = read(co, buf);
-        if(i == -1) {
-            return -1;
+        final int b = buf.get();
+        if (!buf.hasRemaining()) {
+            releaseBuffer();
         }
-        buf.flip();
-        return buf.get();
+        return b;
     }
     
     public int read(Continuation co, byte[] b, int off, int len) throws IOException {
@@ -96,7 +149,11 @@ public class NioCoInputStream extends CoInputStream {
         
         final int n = Math.min(len, available(co));
         if(n > 0){
-            this.buffer.get(b, off, n);
+            final ByteBuffer buf = this.buffer;
+            buf.get(b, off, n);
+            if (!buf.hasRemaining()) {
+                releaseBuffer();
+            }
             off += n;
             len -= n;
         }
@@ -106,7 +163,7 @@ public class NioCoInputStream extends CoInputStream {
         
         // Pass through buffer
         final ByteBuffer newBuf = ByteBuffer.wrap(b, off, len);
-        final int i = read(co, newBuf);
+        final int i = readChannel(co, newBuf);
         if(i == -1){
             if(n == 0){
                 return -1;
@@ -116,22 +173,177 @@ public class NioCoInputStream extends CoInputStream {
         
         return (n + i);
     }
+
+    /** Fill the empty stream buffer. The buffer is released when waiting for data,
+     * and borrowed again when readable.
+     *
+     * @return the number of bytes read, or -1 if end of stream
+     */
+    private int fill(Continuation co) throws IOException {
+        boolean failed = true;
+        try {
+            final ByteBuffer buf = buffer();
+            buf.clear();
+            final int n = readChannel(co, buf, true);
+            if (n == -1) {
+                return -1;
+            }
+            this.buffer.flip();
+            failed = false;
+            return n;
+        } finally {
+            if (failed) {
+                releaseBuffer();
+            }
+        }
+    }
     
-    protected int read(Continuation co, ByteBuffer buf) throws IOException {
+    /** Read the buffered bytes into the dst if any, otherwise read from the channel
+     * into the dst directly, waiting for data in the soTimeout.
+     */
+    @Override
+    public int read(Continuation co, ByteBuffer dst) throws IOException {
+        final int len = dst.remaining();
+        if (len == 0) {
+            return 0;
+        }
+
+        final ByteBuffer buf = this.buffer;
+        if (buf == null || !buf.hasRemaining()) {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            return readChannel(co, dst);
+        }
+
+        final int n = Math.min(len, buf.remaining());
+        final int limit = buf.limit();
+        buf.limit(buf.position() + n);
+        dst.put(buf);
+        buf.limit(limit);
+        if (!buf.hasRemaining()) {
+            releaseBuffer();
+        }
+
+        return n;
+    }
+
+    /** Read the buffered bytes into the dsts in order if any, otherwise read from
+     * the channel into the dsts by a scattering read, waiting for data in the
+     * soTimeout.
+     */
+    @Override
+    public long read(Continuation co, ByteBuffer[] dsts) throws IOException {
+        final ByteBuffer buf = this.buffer;
+        if (buf == null || !buf.hasRemaining()) {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            return readChannel(co, dsts);
+        }
+
+        long n = 0;
+        final int limit = buf.limit();
+        for (ByteBuffer dst : dsts) {
+            final int size = Math.min(dst.remaining(), buf.remaining());
+            if (size == 0) {
+                continue;
+            }
+            buf.limit(buf.position() + size);
+            dst.put(buf);
+            buf.limit(limit);
+            n += size;
+            if (!buf.hasRemaining()) {
+                releaseBuffer();
+                break;
+            }
+        }
+
+        return n;
+    }
+
+    protected long readChannel(Continuation co, ByteBuffer[] dsts) throws IOException {
+        final int last = dsts.length - 1;
+        if (remaining(dsts) == 0) {
+            return 0;
+        }
+
+        final SocketChannel ch = this.channel;
+        final NioCoSocket socket = this.socket;
+        // Read first, then wait for the read interest only if no data
+        try {
+            while (true) {
+                socket.checkReadBudget(co);
+                long i = ch.read(dsts);
+                if (i == -1) {
+                    return -1;
+                }
+                if (i == 0) {
+                    socket.readOps = 0;
+                    socket.startReadTimer(co);
+                    socket.await(co, SelectionKey.OP_READ);
+                    socket.cancelReadTimer();
+                    continue;
+                }
+                socket.readOps++;
+                long n = i;
+                // Read more
+                while (dsts[last].hasRemaining()) {
+                    i = ch.read(dsts);
+                    if (i == 0 || i == -1) {
+                        break;
+                    }
+                    n += i;
+                }
+                return n;
+            }
+        } finally {
+            if (!socket.isStickyRead()) {
+                socket.disableOps(SelectionKey.OP_READ);
+            }
+            socket.cancelReadTimer();
+        }
+    }
+
+    static long remaining(ByteBuffer[] bufs) {
+        long n = 0;
+        for (ByteBuffer buf : bufs) {
+            n += buf.remaining();
+        }
+        return n;
+    }
+
+    protected int readChannel(Continuation co, ByteBuffer buf) throws IOException {
+        return readChannel(co, buf, false);
+    }
+
+    private int readChannel(Continuation co, ByteBuffer buf, boolean streamBuffer)
+            throws IOException {
         final SocketChannel ch = this.channel;
-        SelectionKey key = IoUtils.enableRead(ch, this.selector, this.socket);
+        final NioCoSocket socket = this.socket;
+        // Read first, then wait for the read interest only if no data
         try {
             while (true) {
+                socket.checkReadBudget(co);
                 int i = ch.read(buf);
                 if (i == -1) {
                     return -1;
                 }
                 if (i == 0) {
-                    this.socket.startReadTimer(co);
-                    this.socket.suspend(co);
-                    this.socket.cancelReadTimer();
+                    if (streamBuffer) {
+                        releaseBuffer();
+                    }
+                    socket.readOps = 0;
+                    socket.startReadTimer(co);
+                    socket.await(co, SelectionKey.OP_READ);
+                    socket.cancelReadTimer();
+                    if (streamBuffer) {
+                        buf = buffer();
+                        buf.clear();
+                    }
                     continue;
                 }
+                socket.readOps++;
                 int n = i;
                 // Read more
                 while (buf.hasRemaining()) {
@@ -144,8 +356,10 @@ public class NioCoInputStream extends CoInputStream {
                 return n;
             }
         } finally {
-            IoUtils.disableRead(key, this.selector, this.socket);
-            this.socket.cancelReadTimer();
+            if (!socket.isStickyRead()) {
+                socket.disableOps(SelectionKey.OP_READ);
+            }
+            socket.cancelReadTimer();
         }
     }
     
@@ -156,7 +370,8 @@ public class NioCoInputStream extends CoInputStream {
         } catch (final IOException e) {
             // ignore
         }
-        this.buffer = null;
+        this.closed = true;
+        releaseBuffer();
     }
     
 }
@@ -18,14 +18,13 @@ package io.co.nio;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
 import com.offbynull.coroutines.user.Continuation;
 
 import io.co.CoOutputStream;
-import io.co.util.IoUtils;
 
 /**
  * A NIO implementation of CoOutputStream.
@@ -37,27 +36,154 @@ import io.co.util.IoUtils;
 public class NioCoOutputStream extends CoOutputStream {
     
     protected final NioCoSocket socket;
-    protected final Selector selector;
     protected final SocketChannel channel;
-    private ByteBuffer buffer;
+    // Borrowed from the scheduler buffer arena when writing, and released when
+    // flushed, null if idle
+    protected ByteBuffer buffer;
+    private final int bufferSize;
+    private boolean closed;
+    // Auto-flush: the buffered bytes not flushed by the coroutine, and the stream in
+    // the flush queue of the scheduler
+    boolean dirty;
+    boolean flushQueued;
+    // Lingering close: the socket closed when the pending bytes flushed
+    boolean closePending;
+    // The error of the auto-flush, thrown in the next write or flush
+    private IOException error;
     
-    public NioCoOutputStream(NioCoSocket socket, SocketChannel channel, Selector selector) {
-        this(socket, channel, selector, BUFFER_SIZE);
+    public NioCoOutputStream(NioCoSocket socket, SocketChannel channel) {
+        this(socket, channel, BUFFER_SIZE);
     }
     
-    public NioCoOutputStream(NioCoSocket socket, SocketChannel channel, Selector selector,
-                             int bufferSize) {
+    public NioCoOutputStream(NioCoSocket socket, SocketChannel channel, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize " + bufferSize);
+        }
         this.socket  = socket;
-        this.selector= selector;
         this.channel = channel;
-        this.buffer  = ByteBuffer.allocate(bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    protected ByteBuffer buffer() throws IOException {
+        checkError();
+        ByteBuffer buf = this.buffer;
+        if (buf == null) {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            buf = this.socket.getScheduler().allocateBuffer(this.bufferSize);
+            this.buffer = buf;
+        }
+        return buf;
     }
     
+    /** Release the buffer into the scheduler buffer arena, so that an idle stream
+     * holds no buffer after flushed.
+     */
+    protected void releaseBuffer() {
+        final ByteBuffer buf = this.buffer;
+        if (buf != null) {
+            this.buffer = null;
+            this.socket.getScheduler().releaseBuffer(buf);
+        }
+    }
+
+    /** Called by the source scheduler when the socket is migrated: the buffer leased
+     * from the source arena is released into it, and the buffered bytes are kept in a
+     * heap copy, which is never released into the target arena.
+     */
+    void migrateBuffer() {
+        final ByteBuffer buf = this.buffer;
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        if (buf.position() > 0) {
+            buf.flip();
+            ByteBuffer copy = ByteBuffer.allocate(buf.capacity());
+            copy.put(buf);
+            this.buffer = copy;
+        } else {
+            this.buffer = null;
+        }
+        this.socket.getScheduler().releaseBuffer(buf);
+    }
+
+    private void checkError() throws IOException {
+        final IOException error = this.error;
+        if (error != null) {
+            throw new IOException("Auto-flush failed", error);
+        }
+    }
+
+    /** Mark this stream dirty after buffering, then the buffered bytes are flushed by
+     * the scheduler at the end of the loop if auto-flush.
+     */
+    private void buffered() {
+        if (!this.dirty) {
+            NioScheduler scheduler = this.socket.getScheduler();
+            if (scheduler.isAutoFlush()) {
+                this.dirty = true;
+                scheduler.autoFlush(this);
+            }
+        }
+    }
+
+    /** Called by the scheduler for the auto-flush: write the buffered bytes without
+     * waiting, and enable the write interest if the send buffer full.
+     *
+     * @return true if flushed or failed, false if some bytes left
+     */
+    boolean flushBuffered() {
+        final ByteBuffer buf = this.buffer;
+        if (!this.dirty || buf == null) {
+            this.dirty = false;
+            return true;
+        }
+
+        final NioCoSocket socket = this.socket;
+        buf.flip();
+        try {
+            this.channel.write(buf);
+            if (buf.hasRemaining()) {
+                buf.compact();
+                socket.enableOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+        } catch (IOException e) {
+            this.error = e;
+        }
+        this.dirty = false;
+        releaseBuffer();
+        if ((socket.waitOps & SelectionKey.OP_WRITE) == 0) {
+            socket.disableOps(SelectionKey.OP_WRITE);
+        }
+        if (this.closePending) {
+            this.closePending = false;
+            socket.close();
+        }
+        return true;
+    }
+
+    /** Called by the socket when closing in the scheduler: flush the bytes pending
+     * for the auto-flush without waiting, or linger the close until they're flushed
+     * by the scheduler.
+     *
+     * @return true if flushed or failed, false if the close should linger
+     */
+    boolean flushOnClose() {
+        if (flushBuffered()) {
+            return true;
+        }
+        this.closePending = true;
+        return false;
+    }
+
     @Override
     public void write(Continuation co, int b) throws IOException {
-        final ByteBuffer buf = this.buffer;
+        final ByteBuffer buf = buffer();
         if(buf.hasRemaining()){
             buf.put((byte)b);
+            buffered();
             return;
         }
         flush(co);
@@ -65,12 +191,13 @@ public class NioCoOutputStream extends CoOutputStream {
     }
     
     public void write(Continuation co, byte[] b, int off, int len) throws IOException {
-        final ByteBuffer buf = this.buffer;
+        final ByteBuffer buf = buffer();
 
         if (buf.hasRemaining()) {
             final int size = Math.min(buf.remaining(), len);
             buf.put(b, off, size);
             if (buf.hasRemaining()) {
+                buffered();
                 return;
             }
             flush(co);
@@ -87,12 +214,101 @@ public class NioCoOutputStream extends CoOutputStream {
         }
     }
     
+    /** Buffer the src if it's smaller than the buffer size, otherwise flush the
+     * buffered bytes, then write the src to the channel directly.
+     */
+    @Override
+    public void write(Continuation co, ByteBuffer src) throws IOException {
+        final int len = src.remaining();
+        if (len == 0) {
+            return;
+        }
+
+        if (len < this.bufferSize) {
+            if (len > buffer().remaining()) {
+                flush(co);
+            }
+            buffer().put(src);
+            buffered();
+            return;
+        }
+
+        flush(co);
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        flush(co, src);
+    }
+
+    /** Write the buffered bytes and the srcs to the channel by the gathering writes,
+     * so that a header in the buffer and the body go out in one syscall.
+     */
+    @Override
+    public void write(Continuation co, ByteBuffer[] srcs) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        checkError();
+
+        final ByteBuffer buf = this.buffer;
+        final ByteBuffer[] bufs;
+        this.dirty = false;
+        if (buf == null || buf.position() == 0) {
+            bufs = srcs;
+        } else {
+            buf.flip();
+            bufs = new ByteBuffer[srcs.length + 1];
+            bufs[0] = buf;
+            System.arraycopy(srcs, 0, bufs, 1, srcs.length);
+        }
+        flush(co, bufs);
+        releaseBuffer();
+    }
+
+    /** Flush the buffered bytes, then transfer the file region to the channel by
+     * FileChannel.transferTo() without copying into the buffers, and wait for the
+     * write interest if the send buffer full.
+     */
+    @Override
+    public long transferFrom(Continuation co, FileChannel src, long position, long count)
+            throws IOException, IllegalArgumentException {
+        checkRegion(position, count);
+        flush(co);
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        SocketChannel ch = this.channel;
+        NioCoSocket socket = this.socket;
+        long n = 0;
+        try {
+            while (n < count) {
+                final long i = src.transferTo(position + n, count - n, ch);
+                if (i > 0L) {
+                    n += i;
+                } else if (position + n >= src.size()) {
+                    break;
+                } else {
+                    socket.await(co, SelectionKey.OP_WRITE);
+                }
+            }
+        } finally {
+            socket.disableOps(SelectionKey.OP_WRITE);
+        }
+        return n;
+    }
+
     @Override
     public void flush(Continuation co) throws IOException {
+        checkError();
         final ByteBuffer buf = this.buffer;
+        if (buf == null) {
+            return;
+        }
+        this.dirty = false;
         buf.flip();
         flush(co, buf);
-        buf.clear();
+        releaseBuffer();
     }
     
     protected void flush(Continuation co, final ByteBuffer buf) throws IOException {
@@ -101,27 +317,64 @@ public class NioCoOutputStream extends CoOutputStream {
         }
         
         SocketChannel ch = this.channel;
-        SelectionKey selKey = IoUtils.enableWrite(ch, this.selector, this.socket);
-        try{
+        NioCoSocket socket = this.socket;
+        // Write first, then wait for the write interest only if the send buffer full
+        try {
             while (buf.hasRemaining()) {
                 final int n = ch.write(buf);
                 if (n == 0) {
-                    this.socket.suspend(co);
+                    socket.await(co, SelectionKey.OP_WRITE);
                 }
             }
         } finally {
-            IoUtils.disableWrite(selKey, this.selector, this.socket);
+            socket.disableOps(SelectionKey.OP_WRITE);
         }
     }
     
+    protected void flush(Continuation co, final ByteBuffer[] bufs) throws IOException {
+        final int length = bufs.length;
+        int offset = 0;
+        while (offset < length && !bufs[offset].hasRemaining()) {
+            ++offset;
+        }
+        if (offset == length) {
+            return;
+        }
+
+        SocketChannel ch = this.channel;
+        NioCoSocket socket = this.socket;
+        // Write first, then resume from the first buffer that has remaining after a
+        // partial write, and wait for the write interest only if the send buffer full
+        try {
+            while (offset < length) {
+                final long n = ch.write(bufs, offset, length - offset);
+                while (offset < length && !bufs[offset].hasRemaining()) {
+                    ++offset;
+                }
+                if (n == 0 && offset < length) {
+                    socket.await(co, SelectionKey.OP_WRITE);
+                }
+            }
+        } finally {
+            socket.disableOps(SelectionKey.OP_WRITE);
+        }
+    }
+
     @Override
     public void close() {
+        if (this.dirty && !this.closed) {
+            // Best effort for the bytes pending for the auto-flush
+            flushBuffered();
+        }
         try {
             this.channel.shutdownOutput();
         } catch (final IOException e) {
             // ignore
         }
-        this.buffer = null;
+        this.closed = true;
+        this.dirty = false;
+        this.closePending = false;
+        releaseBuffer();
     }
 
 }
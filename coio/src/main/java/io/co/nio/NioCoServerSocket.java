@@ -18,18 +18,22 @@ package io.co.nio;
 
 import com.offbynull.coroutines.user.Continuation;
 import io.co.*;
+import io.co.util.ExceptionUtils;
 import io.co.util.IoUtils;
 import static io.co.util.LogUtils.*;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.SocketAddress;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.net.*;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * A NIO implementation of CoServerSocket.
@@ -42,9 +46,11 @@ public class NioCoServerSocket extends CoServerSocket
         implements NioCoChannel<ServerSocketChannel> {
 
     protected static String NAME_PREFIX = "NioCoServer";
+    static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
 
     protected String name = NAME_PREFIX;
     private int backlog;
+    private boolean reusePort;
     private ServerSocketChannel channel;
     private volatile boolean bound;
     private Queue<AcceptResult> acceptQueue;
@@ -53,16 +59,33 @@ public class NioCoServerSocket extends CoServerSocket
 
     protected final NioScheduler scheduler;
     protected final boolean localScheduler;
+    protected final NioSchedulerGroup childGroup;
     private int id = -1;
     
     public NioCoServerSocket() {
+        this((NioSchedulerGroup)null);
+    }
+
+    public NioCoServerSocket(NioScheduler scheduler) {
+        this(scheduler, null);
+    }
+
+    /** Create a server socket that accepts connections in a local scheduler, and
+     * hands off each accepted socket to a scheduler of the child group.
+     *
+     * @param childGroup the scheduler group of the accepted sockets, or null
+     *  if the accepted sockets should be run in the acceptor scheduler
+     */
+    public NioCoServerSocket(NioSchedulerGroup childGroup) {
         this.scheduler = new NioScheduler();
         this.localScheduler = true;
+        this.childGroup = childGroup;
     }
 
-    public NioCoServerSocket(NioScheduler scheduler) {
+    public NioCoServerSocket(NioScheduler scheduler, NioSchedulerGroup childGroup) {
         this.scheduler = scheduler;
         this.localScheduler = false;
+        this.childGroup = childGroup;
     }
 
     @Override
@@ -80,6 +103,40 @@ public class NioCoServerSocket extends CoServerSocket
         return this.scheduler;
     }
 
+    public NioSchedulerGroup getChildGroup() {
+        return this.childGroup;
+    }
+
+    NioScheduler childScheduler() {
+        NioSchedulerGroup group = this.childGroup;
+        if (group == null) {
+            return this.scheduler;
+        } else {
+            return group.next();
+        }
+    }
+
+    /** Returns true if SO_REUSEPORT option is enabled, then multiple server sockets,
+     * each in its own scheduler, can bind the same port and the kernel spreads the
+     * incoming connections over them.
+     *
+     * @return true if SO_REUSEPORT is enabled
+     */
+    public boolean isReusePort() {
+        return this.reusePort;
+    }
+
+    public void setReusePort(boolean reusePort) throws IllegalStateException {
+        if (isBound()) {
+            throw new IllegalStateException("The socket is already bound");
+        }
+        this.reusePort = reusePort;
+    }
+
+    public static boolean isReusePortSupported() {
+        return SO_REUSEPORT != null;
+    }
+
     @Override
     public void bind(SocketAddress endpoint, int backlog) throws IOException {
         ServerSocketChannel ch = null;
@@ -89,6 +146,9 @@ public class NioCoServerSocket extends CoServerSocket
                 throw new IOException("The socket is already bound");
             }
             ch = openChannel();
+            if (this.reusePort) {
+                enableReusePort(ch);
+            }
             ch.bind(endpoint, backlog);
             this.channel = ch;
             this.backlog = backlog;
@@ -96,9 +156,21 @@ public class NioCoServerSocket extends CoServerSocket
             this.acceptQueue = new LinkedList<>();
 
             NioScheduler scheduler = getScheduler();
-            scheduler.register(this);
             if (this.localScheduler) scheduler.setName(this.name);
-            ch.register(scheduler.selector, SelectionKey.OP_ACCEPT, this);
+            if (!scheduler.isStarted() || scheduler.inScheduler()) {
+                register(ch);
+            } else {
+                // Register in the running scheduler thread, e.g. one of a scheduler group
+                ServerSocketChannel ssChan = ch;
+                Future<?> future = scheduler.execute(() -> {
+                    try {
+                        register(ssChan);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                await(future);
+            }
 
             this.bound = true;
             failed = false;
@@ -109,6 +181,45 @@ public class NioCoServerSocket extends CoServerSocket
         }
     }
 
+    private void register(ServerSocketChannel ch) throws IOException {
+        NioScheduler scheduler = getScheduler();
+        scheduler.register(this);
+        ch.register(scheduler.selector, SelectionKey.OP_ACCEPT, this);
+    }
+
+    static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw ExceptionUtils.runtime(e);
+        }
+    }
+
+    static void enableReusePort(ServerSocketChannel ch) throws IOException {
+        SocketOption<Boolean> option = SO_REUSEPORT;
+        if (option == null || !ch.supportedOptions().contains(option)) {
+            throw new IOException("SO_REUSEPORT not supported");
+        }
+        ch.setOption(option, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    static SocketOption<Boolean> reusePortOption() {
+        try {
+            // Since JDK 9
+            Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            return (SocketOption<Boolean>) field.get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
     static ServerSocketChannel openChannel() throws IOException {
         ServerSocketChannel ssChan = null;
         boolean failed = true;
@@ -24,9 +24,14 @@ import java.io.IOError;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The NIO implementation of CoSocket.
@@ -37,17 +42,38 @@ import java.nio.channels.SocketChannel;
  */
 public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel> {
 
-    private final NioScheduler scheduler;
+    static final boolean STICKY_READ = Boolean.getBoolean("io.co.stickyRead");
+    // Max reads without waiting before yielding to other ready coroutines, 0 means
+    // no limit
+    static final int READ_BUDGET = Integer.getInteger("io.co.readBudget", 16);
+
+    private volatile NioScheduler scheduler;
     private final boolean localScheduler;
 
     private final SocketChannel channel;
     private final CoInputStream in;
     private final CoOutputStream out;
     private int id = -1;
+
+    // The cached selection key and interest set, for changing interest ops only
+    // when the interest set changes, instead of re-registering in each IO
+    private SelectionKey key;
+    private int interestOps;
+    // The ops that the suspended coroutine waits for
+    int waitOps;
+    private boolean stickyRead = STICKY_READ;
+    // In the ready queue of the scheduler since the ready turn
+    boolean ready;
+    long readyTurn;
+    // The reads without waiting since the last wait
+    int readOps;
     
     private NioCoTimer connectionTimer;
-    private NioCoTimer readTimer;
+    private NioReadTimer readTimer;
     private CoContext context;
+    // The read deadline in System.nanoTime(), valid if readTimed
+    long readDeadline;
+    boolean readTimed;
 
     public NioCoSocket() throws IOError {
         this(new NioScheduler(), true);
@@ -61,13 +87,12 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
         this.scheduler = (NioScheduler)scheduler;
         this.localScheduler = localScheduler;
 
-        Selector selector = this.scheduler.selector;
         SocketChannel ch = null;
         boolean failed = true;
         try {
             this.channel = ch = openChannel();
-            this.in = new NioCoInputStream(this, ch, selector);
-            this.out = new NioCoOutputStream(this, ch, selector);
+            this.in = new NioCoInputStream(this, ch);
+            this.out = new NioCoOutputStream(this, ch);
             failed = false;
         } finally {
             if (failed) {
@@ -78,13 +103,219 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
     }
 
     public NioCoSocket(SocketChannel channel, Scheduler scheduler) {
-        NioScheduler nioScheduler = (NioScheduler)scheduler;
-        Selector selector = nioScheduler.selector;
         this.channel = channel;
-        this.scheduler = nioScheduler;
+        this.scheduler = (NioScheduler)scheduler;
         this.localScheduler = false;
-        this.in = new NioCoInputStream(this, channel, selector);
-        this.out = new NioCoOutputStream(this, channel, selector);
+        this.in = new NioCoInputStream(this, channel);
+        this.out = new NioCoOutputStream(this, channel);
+    }
+
+    protected boolean isLocalScheduler() {
+        return this.localScheduler;
+    }
+
+    void setScheduler(NioScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /** Migrate this socket to the target scheduler, called by the coroutine of this
+     * socket. The coroutine is suspended here, then resumed in the target scheduler
+     * thread after this socket is registered there.
+     *
+     * @param co the coroutine of this socket
+     * @param target the target scheduler
+     * @throws IOException if re-registering this socket failed
+     * @throws IllegalStateException if this socket can't be migrated, or the target
+     *  scheduler not running
+     */
+    public void migrate(Continuation co, NioScheduler target)
+            throws IOException, IllegalStateException {
+        NioScheduler source = this.scheduler;
+        source.checkMigrate(this, target);
+        if (target == source) {
+            return;
+        }
+        // Migrate after the coroutine suspended
+        source.enqueue(() -> source.migrate(this, target, true));
+        suspend(co);
+    }
+
+    /** Cancel the selection key and the read timer in the current scheduler for
+     * migration, and returns the interest ops for registering in the target.
+     *
+     * @return the interest ops
+     */
+    int deregister() {
+        SelectionKey key = this.key;
+        NioReadTimer timer = this.readTimer;
+        this.key = null;
+        this.readTimer = null;
+        this.id = -1;
+        if (key != null) {
+            key.cancel();
+        }
+        if (timer != null) {
+            timer.cancel();
+        }
+        return this.interestOps;
+    }
+
+    void rearmReadTimer() {
+        if (this.readTimed) {
+            NioReadTimer timer = this.readTimer = new NioReadTimer(this);
+            timer.arm(this.readDeadline);
+        }
+    }
+
+    public boolean isStickyRead() {
+        return this.stickyRead;
+    }
+
+    /** Keep the read interest between reads when true, for the connection that reads
+     * continuously, then the read interest is only disabled when the socket is
+     * readable but no coroutine waits for reading. Otherwise disable the read interest
+     * after each read that has waited.
+     *
+     * @param stickyRead the sticky read interest mode
+     */
+    public void setStickyRead(boolean stickyRead) {
+        this.stickyRead = stickyRead;
+    }
+
+    protected SelectionKey selectionKey() {
+        return this.key;
+    }
+
+    protected int interestOps() {
+        return this.interestOps;
+    }
+
+    /** Set the interest set of this socket, it registers the channel only at the first
+     * time, and changes the interest ops of the key only when the set changes.
+     *
+     * @param ops the new interest set
+     * @throws ClosedChannelException if the channel closed
+     */
+    protected void interestOps(int ops) throws ClosedChannelException {
+        SelectionKey key = this.key;
+        if (key == null) {
+            Selector selector = this.scheduler.selector;
+            this.key = this.channel.register(selector, ops, this);
+        } else if (ops != this.interestOps) {
+            try {
+                key.interestOps(ops);
+            } catch (CancelledKeyException e) {
+                throw new ClosedChannelException();
+            }
+        }
+        this.interestOps = ops;
+    }
+
+    protected void enableOps(int ops) throws ClosedChannelException {
+        int iOps = this.interestOps;
+        if ((iOps & ops) != ops || this.key == null) {
+            interestOps(iOps | ops);
+        }
+    }
+
+    protected void disableOps(int ops) {
+        int iOps = this.interestOps;
+        if ((iOps & ops) != 0) {
+            try {
+                interestOps(iOps & ~ops);
+            } catch (ClosedChannelException e) {
+                // ignore
+            }
+        }
+    }
+
+    /** Suspend the coroutine until the socket is ready for the ops, the ops interest
+     * is enabled if not yet.
+     *
+     * @param co the waiting coroutine
+     * @param ops the waited ops
+     * @throws IOException if IO error, or timeout
+     */
+    protected void await(Continuation co, int ops) throws IOException {
+        enableOps(ops);
+        this.waitOps |= ops;
+        try {
+            suspend(co);
+        } finally {
+            this.waitOps &= ~ops;
+        }
+    }
+
+    /** Called by the scheduler when the socket is ready for the ops.
+     *
+     * @param ops the ready ops
+     */
+    protected void onReady(int ops) {
+        int waitOps = this.waitOps & ops;
+        if (waitOps != 0) {
+            if (!this.ready) {
+                this.scheduler.ready(this);
+            }
+            return;
+        }
+        NioCoOutputStream out = (NioCoOutputStream)this.out;
+        if ((ops & SelectionKey.OP_WRITE) != 0 && out.dirty) {
+            // Resume the auto-flush that the send buffer was full
+            out.flushBuffered();
+            ops &= ~SelectionKey.OP_WRITE;
+        }
+        // Nobody waits: lazily disable the sticky interest, or it's reported again
+        disableOps(ops);
+    }
+
+    /** Called by the scheduler when this socket is recycled: close the streams, and
+     * resume the coroutine waiting for IO with the close error, e.g. this socket is
+     * closed by other threads or coroutines.
+     */
+    void onClosed() {
+        IoUtils.close(this.in);
+        IoUtils.close(this.out);
+        CoContext context = this.context;
+        if (context != null && this.waitOps != 0 && !this.ready) {
+            context.attach(new ClosedChannelException());
+            this.scheduler.ready(this);
+        }
+    }
+
+    /** Called by the scheduler when the socket is polled from the ready queue. */
+    void resumeReady() {
+        this.ready = false;
+        CoContext context = this.context;
+        if (context != null) {
+            context.resume();
+        }
+    }
+
+    /** Yield the scheduler to other ready coroutines: this coroutine is queued at the
+     * tail of the ready queue, then suspended till polled.
+     *
+     * @param co the coroutine of this socket
+     * @throws IOException if IO error when suspending
+     */
+    protected void reschedule(Continuation co) throws IOException {
+        // Note: this.context not set till suspended, so queued in the coroutine priority
+        CoContext context = (CoContext)co.getContext();
+        this.scheduler.ready(this, context.getPriority());
+        suspend(co);
+    }
+
+    /** Check the read budget before reading, and yield if the coroutine has read too
+     * many times without waiting.
+     *
+     * @param co the reading coroutine
+     * @throws IOException if IO error when suspending
+     */
+    protected void checkReadBudget(Continuation co) throws IOException {
+        final int budget = READ_BUDGET;
+        if (budget > 0 && this.readOps >= budget) {
+            this.readOps = 0;
+            reschedule(co);
+        }
     }
     
     @Override
@@ -164,13 +395,38 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
         return ch.isConnected();
     }
     
+    /** Close this socket. The bytes pending for the auto-flush are flushed first: if
+     * the send buffer is full, the close lingers until the scheduler flushes them, and
+     * a second close, e.g. the forced close at shutdown, discards them. The close from
+     * other threads is an abort: the channel is closed at once, then the streams and
+     * the waiting coroutine are handled when the scheduler recycles this socket.
+     */
     @Override
     public void close() {
+        if (!this.scheduler.inScheduler()) {
+            try {
+                IoUtils.close(channel());
+                super.close();
+            } finally {
+                if (this.localScheduler) {
+                    this.scheduler.shutdown();
+                }
+            }
+            return;
+        }
+        NioCoOutputStream out = (NioCoOutputStream)this.out;
+        if (out.dirty && !out.closePending && !out.flushOnClose()) {
+            return;
+        }
         try {
             IoUtils.close(this.in);
             IoUtils.close(this.out);
             IoUtils.close(channel());
             super.close();
+            NioReadTimer timer = this.readTimer;
+            if (timer != null) {
+                timer.cancel();
+            }
         } finally {
             if (this.localScheduler) {
                 this.scheduler.shutdown();
@@ -184,10 +440,9 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
         boolean failed = true;
         try {
             NioScheduler scheduler = this.scheduler;
-            Selector selector = scheduler.selector;
             scheduler.register(this);
             SocketChannel ch = channel();
-            ch.register(selector, SelectionKey.OP_CONNECT, this);
+            interestOps(SelectionKey.OP_CONNECT);
             ch.connect(endpoint);
             startConnectionTimer(co, timeout);
             suspend(co);
@@ -250,6 +505,21 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
         return this.in.readFully(co, b, off, len);
     }
 
+    @Override
+    public int read(Continuation co, ByteBuffer dst) throws IOException {
+        return this.in.read(co, dst);
+    }
+
+    @Override
+    public int readFully(Continuation co, ByteBuffer dst) throws IOException {
+        return this.in.readFully(co, dst);
+    }
+
+    @Override
+    public long read(Continuation co, ByteBuffer[] dsts) throws IOException {
+        return this.in.read(co, dsts);
+    }
+
     @Override
     public long skip(Continuation co, long n) throws IOException {
         return this.in.skip(co, n);
@@ -289,6 +559,22 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
         this.out.write(co, b, off, len);
     }
 
+    @Override
+    public void write(Continuation co, ByteBuffer src) throws IOException {
+        this.out.write(co, src);
+    }
+
+    @Override
+    public void write(Continuation co, ByteBuffer[] srcs) throws IOException {
+        this.out.write(co, srcs);
+    }
+
+    @Override
+    public long transferFrom(Continuation co, FileChannel src, long position, long count)
+            throws IOException, IllegalArgumentException {
+        return this.out.transferFrom(co, src, position, count);
+    }
+
     @Override
     public void flush(Continuation co) throws IOException {
         this.out.flush(co);
@@ -328,21 +614,30 @@ public class NioCoSocket extends CoSocket implements NioCoChannel<SocketChannel>
         }
     }
     
+    /** Clear the read deadline, the read timer is left in the timing wheel and
+     * checks the deadline lazily when it fires.
+     */
     protected void cancelReadTimer() {
-        if (this.readTimer != null) {
-            this.readTimer.cancel();
-            this.readTimer = null;
-        }
+        this.readTimed = false;
     }
 
+    /** Set the read deadline by the soTimeout, and arm the read timer of this socket
+     * if it isn't armed yet. It doesn't allocate after the first timed read.
+     *
+     * @param co the reading coroutine
+     */
     protected void startReadTimer(Continuation co) {
         final int timeout = getSoTimeout();
 
         if (timeout > 0) {
-            final NioScheduler scheduler = getScheduler();
-            CoContext context = (CoContext)co.getContext();
-            this.readTimer = new NioReadTimer(context, scheduler, timeout);
-            scheduler.schedule(this.readTimer);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            NioReadTimer timer = this.readTimer;
+            if (timer == null) {
+                this.readTimer = timer = new NioReadTimer(this);
+            }
+            this.readDeadline = deadline;
+            this.readTimed = true;
+            timer.arm(deadline);
         }
     }
     
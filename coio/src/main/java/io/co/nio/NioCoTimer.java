@@ -18,34 +18,55 @@ package io.co.nio;
 
 import io.co.CoChannel;
 import io.co.CoContext;
+import io.co.CoTimer;
 
 import static io.co.util.LogUtils.*;
+import static java.util.concurrent.TimeUnit.*;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author little-pan
  * @since 2019-05-19
  *
  */
-public class NioCoTimer implements Runnable {
+public class NioCoTimer implements CoTimer, Runnable {
     
-    int id = -1;
+    // Timing wheel links
+    NioCoTimer prev, next;
+    int bucket = -1;
+    long tick;
     
     protected final NioScheduler scheduler;
     protected final CoContext context;
     protected Runnable task;
     
-    protected boolean canceled;
+    protected volatile boolean canceled;
     
+    // The deadline and period in System.nanoTime()
     protected long runat;
     protected final long period;
+    protected final boolean fixedRate;
     
+    /** Create a reusable timer for the subclass, the subclass sets the runat and
+     * runs it.
+     *
+     * @param scheduler the timer scheduler
+     */
+    protected NioCoTimer(NioScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.context = null;
+        this.period = 0L;
+        this.fixedRate = false;
+    }
+
     public NioCoTimer(CoContext context, NioScheduler scheduler, long delay){
         this(context, scheduler, null, delay,  0L);
     }
+
+    public NioCoTimer(CoContext context, NioScheduler scheduler, long delay, TimeUnit unit){
+        this(context, scheduler, null, delay,  0L, unit, false);
+    }
     
     public NioCoTimer(CoContext context, NioScheduler scheduler,
                       Runnable task, long delay) {
@@ -58,33 +79,72 @@ public class NioCoTimer implements Runnable {
     
     public NioCoTimer(CoContext context, NioScheduler scheduler,
                       Runnable task, long delay, long period) {
+        this(context, scheduler, task, delay, period, MILLISECONDS, false);
+    }
+
+    /** Create a timer.
+     *
+     * @param context the context of the coroutine resumed when the timer runs,
+     *  can be null if the task isn't null
+     * @param scheduler the timer scheduler
+     * @param task the timer task, can be null if the context isn't null
+     * @param delay the delay of the first run
+     * @param period the period of the next runs, or 0 if run only once
+     * @param unit the time unit of delay and period
+     * @param fixedRate the next run is at a fixed rate from the first one if true,
+     *  otherwise at a fixed delay from the end of the last run
+     */
+    public NioCoTimer(CoContext context, NioScheduler scheduler,
+                      Runnable task, long delay, long period, TimeUnit unit,
+                      boolean fixedRate) {
         if (context == null && task == null) {
             throw new NullPointerException();
         }
+        if (delay < 0L || period < 0L) {
+            throw new IllegalArgumentException("delay " + delay + ", period " + period);
+        }
         this.scheduler = scheduler;
         this.context = context;
         this.task    = task;
-        this.runat   = System.currentTimeMillis() + delay;
-        this.period  = period;
+        this.runat   = System.nanoTime() + unit.toNanos(delay);
+        this.period  = unit.toNanos(period);
+        this.fixedRate = fixedRate;
     }
     
+    /** Returns the deadline of the next run in System.nanoTime().
+     *
+     * @return the next run time in nanos
+     */
     public long runat(){
         return this.runat;
     }
     
+    /** Returns the period in nanos.
+     *
+     * @return the period in nanos, or 0 if not periodic
+     */
     public long period(){
         return this.period;
     }
+
+    public boolean isFixedRate() {
+        return this.fixedRate;
+    }
     
     public boolean next(){
         if(isCanceled() || this.period <= 0L){
             this.cancel();
             return false;
         }
-        this.runat = System.currentTimeMillis() + this.period;
+        if (this.fixedRate) {
+            this.runat += this.period;
+        } else {
+            this.runat = System.nanoTime() + this.period;
+        }
         return true;
     }
     
+    @Override
     public boolean isCanceled() {
         if (this.canceled) {
             return true;
@@ -101,13 +161,19 @@ public class NioCoTimer implements Runnable {
         return false;
     }
     
+    @Override
     public void cancel() {
         if (this.isCanceled()) {
             return;
         }
         
-        this.scheduler.cancel(this);
         this.canceled = true;
+        NioScheduler scheduler = this.scheduler;
+        if (scheduler.inScheduler()) {
+            scheduler.cancel(this);
+        } else {
+            scheduler.dispatch(() -> scheduler.cancel(this));
+        }
         
         debug("Cancel: %s", this);
     }
@@ -130,10 +196,10 @@ public class NioCoTimer implements Runnable {
     }
     
     public String toString() {
-        DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        String runat  = df.format(new Date(this.runat));
-        return String.format("%s[id=%s#%s, context=%s, canceled=%s, runat=%s, period=%sms]",
-                getClass(), this.id, this.hashCode(), this.context, this.canceled, runat, this.period);
+        long delay = this.runat - System.nanoTime();
+        return String.format("%s[#%s, context=%s, canceled=%s, delay=%sus, period=%sus, fixedRate=%s]",
+                getClass(), this.hashCode(), this.context, this.canceled,
+                NANOSECONDS.toMicros(delay), NANOSECONDS.toMicros(this.period), this.fixedRate);
     }
 
 }
@@ -23,24 +23,72 @@ import java.net.SocketTimeoutException;
 import static io.co.util.LogUtils.*;
 
 /**
+ * The read timer of a socket, created once and reused by all reads of the socket.
+ * A read only sets the deadline of the socket, and this timer checks the deadline
+ * lazily when it fires: it's re-armed to the deadline if the deadline has moved,
+ * dropped if the socket isn't waiting, or else times out the waiting coroutine.
+ *
  * @author little-pan
  * @since 2019-05-14
  *
  */
 public class NioReadTimer extends NioCoTimer {
+
+    protected final NioCoSocket socket;
     
-    public NioReadTimer(CoContext context, NioScheduler scheduler, int timeout){
-        super(context, scheduler, timeout);
+    public NioReadTimer(NioCoSocket socket){
+        super(socket.getScheduler());
+        this.socket = socket;
+    }
+
+    /** Arm this timer at the deadline if not in the timing wheel yet, or the deadline
+     * is earlier than the armed one, e.g. the soTimeout has been decreased.
+     *
+     * @param deadline the read deadline in System.nanoTime()
+     */
+    void arm(long deadline) {
+        NioScheduler scheduler = this.scheduler;
+        if (this.bucket != -1) {
+            if (deadline - this.runat >= 0L) {
+                return;
+            }
+            scheduler.cancel(this);
+        }
+        this.runat = deadline;
+        scheduler.schedule(this);
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return !this.socket.isOpen();
+    }
+
+    @Override
+    public void cancel() {
+        this.scheduler.cancel(this);
     }
     
     @Override
     public void run() {
         debug("Running: %s", this);
-        if (this.isCanceled()) {
+        NioCoSocket socket = this.socket;
+        if (this.isCanceled() || !socket.readTimed || socket.ready) {
+            // Not waiting, or ready to resume in the ready queue
+            return;
+        }
+
+        long deadline = socket.readDeadline;
+        if (deadline - System.nanoTime() > 0L) {
+            // The socket has read since armed
+            arm(deadline);
+            return;
+        }
+        CoContext context = socket.getContext();
+        if (context == null) {
             return;
         }
 
-        CoContext context = super.context;
+        socket.readTimed = false;
         context.attach(new SocketTimeoutException("Read timeout"));
         context.resume();
     }
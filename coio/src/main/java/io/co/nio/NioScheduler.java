@@ -17,12 +17,16 @@
 package io.co.nio;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.*;
 import static java.util.concurrent.CompletableFuture.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.offbynull.coroutines.user.Continuation;
 
@@ -32,6 +36,8 @@ import io.co.*;
 import io.co.nio.NioCoServerSocket.AcceptResult;
 import io.co.util.ExceptionUtils;
 import io.co.util.IoUtils;
+import io.co.util.MpscArrayQueue;
+import io.co.util.RuntimeUtils;
 import static io.co.util.LogUtils.*;
 
 /**
@@ -44,6 +50,36 @@ import static io.co.util.LogUtils.*;
 public class NioScheduler implements Scheduler {
 
     static final int ioRatio = initIoRatio();
+    // The run budget of the ready coroutines in each loop
+    static final int READY_BUDGET = Integer.getInteger("io.co.readyBudget", 1024);
+    static final long READY_BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(
+            Long.getLong("io.co.readyBudgetMicros", 1000L));
+    // Adaptive ioRatio: adjusted in each loop by the task queue depth, ready keys and
+    // loop latency, in the range [IO_RATIO_MIN, IO_RATIO_MAX]
+    static final boolean ADAPTIVE_IO_RATIO = Boolean.getBoolean("io.co.ioRatio.adaptive");
+    static final int IO_RATIO_MIN = 10, IO_RATIO_MAX = 90, IO_RATIO_STEP = 5;
+    static final long LOOP_LATENCY_NANOS = TimeUnit.MICROSECONDS.toNanos(
+            Long.getLong("io.co.loopLatencyMicros", 1000L));
+    // The bounded task queue capacity, the tasks beyond it spill into an unbounded
+    // overflow queue instead of failing
+    static final int TASK_QUEUE_CAPACITY = Integer.getInteger("io.co.taskQueue.capacity", 1 << 16);
+    static final int TASK_BATCH = 64;
+    static final int URGENT_QUEUE_CAPACITY = Math.max(TASK_BATCH, TASK_QUEUE_CAPACITY >>> 4);
+    // The loop turns that a lower priority ready socket waits before served first
+    static final int AGING_TURNS = Integer.getInteger("io.co.priority.agingTurns", 4);
+    // Timer tick in nanos, the resolution of the timers
+    static final long TIMER_TICK = TimeUnit.MICROSECONDS.toNanos(
+            Long.getLong("io.co.timer.tickMicros", 1000L));
+    static final long SELECT_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+    static final long SHUTDOWN_SELECT_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+    // The min interval of reclaiming the channels closed but not recycled in shutdown
+    static final long SHUTDOWN_RECLAIM_NANOS = TimeUnit.SECONDS.toNanos(1L);
+    // Busy-poll time before the blocking select, 0 means no spin
+    static final long SPIN_MICROS = Long.getLong("io.co.spinMicros", 0L);
+    // Flush the buffered socket outputs once at the end of each loop, instead of
+    // by the coroutines, and the max delay of the buffered bytes, 0 means no delay
+    static final boolean AUTO_FLUSH = Boolean.getBoolean("io.co.autoFlush");
+    static final long AUTO_FLUSH_DELAY_MICROS = Long.getLong("io.co.autoFlush.maxDelayMicros", 0L);
     
     protected String name;
     protected boolean daemon;
@@ -51,22 +87,76 @@ public class NioScheduler implements Scheduler {
     private volatile Throwable fatal;
     private volatile boolean shutdown;
     private volatile boolean terminated;
+    private final CompletableFuture<Void> terminationFuture = new CompletableFuture<>();
+    // Graceful shutdown: terminate after the quiet period, or force-close at deadline
+    private volatile boolean graceful;
+    private volatile long quietNanos;
+    private volatile long shutdownStart;
+    private volatile long shutdownDeadline;
+    // The last IO or task time in shutdown, and the last reclaiming time
+    private long lastActive;
+    private long lastReclaim;
     private final AtomicReference<Thread> threadRef;
     
     private NioCoChannel<?>[] channels;
     private final int maxConnections;
+    private final int initConnections;
+    // One plus the highest used slot
     private int maxChanSlot;
-    private int freeChanSlot = -1;
+    // The free slot stack below the maxChanSlot, an entry is stale if the slot has
+    // been trimmed or re-allocated, and skipped when popped
+    private int[] freeSlots = new int[16];
+    private int freeSize;
+    private volatile int connections;
+    // The sockets handed off to this scheduler but not registered yet
+    private final AtomicInteger handOffs = new AtomicInteger();
+    // The registered server sockets, closed first in shutdown
+    private final List<NioCoServerSocket> servers = new ArrayList<>();
+    private volatile long accepted;
+
+    private volatile boolean adaptiveIoRatio = ADAPTIVE_IO_RATIO;
+    private volatile int currentIoRatio = ADAPTIVE_IO_RATIO? clampIoRatio(ioRatio): ioRatio;
+    private volatile long spinNanos = TimeUnit.MICROSECONDS.toNanos(SPIN_MICROS);
+    private volatile long spinTime;
+    private volatile long spinHits;
+    // The non-blocking selects, not including the spinning ones
+    long selectNows;
+    // The time of the non-blocking select in this loop if adaptive ioRatio, counted
+    // in the loop latency
+    private long selectTime;
+    private volatile boolean autoFlush = AUTO_FLUSH;
+    private volatile long autoFlushDelayNanos = TimeUnit.MICROSECONDS.toNanos(AUTO_FLUSH_DELAY_MICROS);
+    private volatile long autoFlushes;
+    // The output streams queued for the auto-flush, the streams that became dirty
+    // since the last flush, and the time of the first one
+    private final ArrayDeque<NioCoOutputStream> flushQueue = new ArrayDeque<>();
+    private int flushAdded;
+    private long flushSince;
     
-    private NioCoTimer[] timers;
-    private int maxTimerSlot;
-    private int freeTimerSlot = -1;
-    private boolean timersChanged;
+    // The direct buffer arena of the socket streams, null if disabled
+    private final NioBufferArena bufferArena;
+    // The pool of the completed contexts, null if not pooled
+    private NioCoContextPool contextPool;
+    private NioTimerWheel timerWheel;
+    private final Consumer<NioCoTimer> timerRunner = this::runTimer;
 
     protected final Executor executor;
     protected final Selector selector;
+    // The array-backed selected keys, or null if the selector not optimized
+    final NioSelectedKeySet selectedKeys;
     protected final AtomicBoolean wakeup;
-    final BlockingQueue<Runnable> syncQueue;
+    final MpscArrayQueue<Runnable> syncQueue;
+    // The tasks of the high priority coroutines, run before the syncQueue ones
+    final MpscArrayQueue<Runnable> urgentQueue;
+    // The spill of the syncQueue when full, run after the syncQueue ones
+    final ConcurrentLinkedQueue<Runnable> overflowQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong taskOverflows = new AtomicLong();
+    // The sockets that are ready to resume their coroutines in this thread, a queue
+    // per priority level
+    private final ArrayDeque<NioCoSocket>[] readyQueues;
+    private int readySize;
+    private long readyTurns;
+    private final Consumer<Runnable> taskRunner = this::runTask;
     
     public NioScheduler() throws IOError {
         this(NAME, MAX_CONNECTIONS);
@@ -106,14 +196,22 @@ public class NioScheduler implements Scheduler {
         this.name = name;
         this.threadRef = new AtomicReference<>();
         this.channels  = new NioCoChannel<?>[initConnections];
+        this.initConnections = initConnections;
         this.maxConnections = maxConnections;
         
-        this.timers    = new NioCoTimer[1 << 10/* Init capacity */];
-        this.syncQueue = new LinkedBlockingQueue<>();
+        this.timerWheel= new NioTimerWheel(System.nanoTime(), TIMER_TICK);
+        this.syncQueue = new MpscArrayQueue<>(TASK_QUEUE_CAPACITY);
+        this.urgentQueue = new MpscArrayQueue<>(URGENT_QUEUE_CAPACITY);
+        this.readyQueues = newReadyQueues();
+        this.bufferArena = NioBufferArena.ENABLED? new NioBufferArena(): null;
+        if (NioCoContextPool.SIZE > 0) {
+            this.contextPool = new NioCoContextPool(this, NioCoContextPool.SIZE);
+        }
         this.executor  = executor;
 
         try {
             this.selector = Selector.open();
+            this.selectedKeys = NioSelectedKeySet.install(this.selector);
             this.wakeup = new AtomicBoolean();
         } catch (IOException cause){
             throw new IOError(cause);
@@ -149,53 +247,61 @@ public class NioScheduler implements Scheduler {
     }
     
     protected void schedule(final NioCoTimer timerTask) {
-        NioScheduler self = this;
-        Future<?> future = execute(() -> {
-            if(timerTask.isCanceled()) {
-                return;
-            }
-            if(timerTask.id != -1) {
-                String error = "timerTask id had set: " + timerTask.id;
-                throw new IllegalStateException(error);
-            }
-
-            final int slot = self.nextTimerSlot();
-            timerTask.id = slot;
-            debug("Schedule timer: %s", timerTask);
-
-            final NioCoTimer oldTimer = self.timers[slot];
-            if(oldTimer != null && !oldTimer.isCanceled()){
-                final String f = "Time runner slot %s used: %s";
-                final String error = String.format(f, slot, oldTimer);
-                debug("schedule(): %s", error);
-                throw new IllegalStateException(error);
-            }
-            self.timers[slot] = timerTask;
-            this.timersChanged= true;
-        });
-
-        handleFuture(future);
+        if (inScheduler()) {
+            addTimer(timerTask);
+        } else {
+            dispatch(() -> addTimer(timerTask));
+        }
     }
 
-    static void handleFuture(Future<?> future) throws RuntimeException {
-        try {
-            future.get();
-        } catch (InterruptedException e) {
-            // Ignore
-        } catch (ExecutionException e) {
-            throw ExceptionUtils.runtime(e);
+    private void addTimer(final NioCoTimer timerTask) {
+        if(timerTask.isCanceled() || isTerminated()) {
+            return;
         }
+
+        this.timerWheel.add(timerTask);
+        debug("Schedule timer: %s", timerTask);
     }
 
     @Override
-    public void schedule(Runnable task, long delay) throws NullPointerException {
-        schedule(task, delay, 0);
+    public NioCoTimer schedule(Runnable task, long delay) throws NullPointerException {
+        return schedule(task, delay, 0);
     }
     
     @Override
-    public void schedule(Runnable task, long delay, long period) throws NullPointerException {
+    public NioCoTimer schedule(Runnable task, long delay, long period) throws NullPointerException {
+        if (task == null) throw new NullPointerException();
+
         NioCoTimer timer = new NioCoTimer(this, task, delay, period);
         schedule(timer);
+        return timer;
+    }
+
+    @Override
+    public NioCoTimer schedule(Runnable task, long delay, TimeUnit unit)
+            throws NullPointerException {
+        return schedule(task, delay, 0L, unit, false);
+    }
+
+    @Override
+    public NioCoTimer scheduleAtFixedRate(Runnable task, long delay, long period, TimeUnit unit)
+            throws NullPointerException {
+        return schedule(task, delay, period, unit, true);
+    }
+
+    @Override
+    public NioCoTimer scheduleWithFixedDelay(Runnable task, long delay, long period, TimeUnit unit)
+            throws NullPointerException {
+        return schedule(task, delay, period, unit, false);
+    }
+
+    protected NioCoTimer schedule(Runnable task, long delay, long period, TimeUnit unit,
+                                  boolean fixedRate) throws NullPointerException {
+        if (task == null) throw new NullPointerException();
+
+        NioCoTimer timer = new NioCoTimer(null, this, task, delay, period, unit, fixedRate);
+        schedule(timer);
+        return timer;
     }
     
     @Override
@@ -212,15 +318,64 @@ public class NioScheduler implements Scheduler {
             return future;
         }
         
-        boolean ok = this.syncQueue.offer(future);
-        if (ok) {
-            if (this.wakeup.compareAndSet(false, true)) {
-                this.selector.wakeup();
-            }
-            return future;
+        enqueue(future);
+        return future;
+    }
+
+    @Override
+    public void dispatch(Runnable task) throws IllegalStateException {
+        if (task == null) throw new NullPointerException();
+
+        if (inScheduler()) {
+            runTask(task);
+        } else {
+            enqueue(task);
+        }
+    }
+
+    @Override
+    public void dispatch(Runnable task, int priority) throws IllegalStateException {
+        if (task == null) throw new NullPointerException();
+
+        if (inScheduler()) {
+            runTask(task);
+        } else if (priority == CoContext.PRIORITY_HIGH && this.urgentQueue.offer(task)) {
+            wakeup();
+        } else {
+            enqueue(task);
+        }
+    }
+
+    /** Queue the task from another thread. The task spills into the unbounded
+     * overflow queue if the task queue is full, and the later tasks follow it until
+     * the overflow queue drained, so a burst of the tasks, e.g. the cross-thread
+     * resumes, never fails and keeps the order of a producer.
+     *
+     * @param task the queued task
+     */
+    void enqueue(Runnable task) {
+        final Queue<Runnable> overflow = this.overflowQueue;
+        if (!overflow.isEmpty() || !this.syncQueue.offer(task)) {
+            overflow.offer(task);
+            this.taskOverflows.incrementAndGet();
+        }
+        wakeup();
+    }
+
+    /** Returns the number of the tasks that spilled into the overflow queue for the
+     * task queue full.
+     * @threadsafe
+     *
+     * @return the overflow task count
+     */
+    public long getTaskOverflows() {
+        return this.taskOverflows.get();
+    }
+
+    private void wakeup() {
+        if (this.wakeup.compareAndSet(false, true)) {
+            this.selector.wakeup();
         }
-        
-        throw new IllegalStateException("Task queue full");
     }
 
     @Override
@@ -279,8 +434,17 @@ public class NioScheduler implements Scheduler {
             throw new IllegalArgumentException("millis " + millis);
         }
 
+        await(co, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void await(Continuation co, long time, TimeUnit unit) {
+        if(time < 0L) {
+            throw new IllegalArgumentException("time " + time);
+        }
+
         CoContext context = (CoContext)co.getContext();
-        NioCoTimer timer = new NioCoTimer(context, this, millis);
+        NioCoTimer timer = new NioCoTimer(context, this, time, unit);
         schedule(timer);
         CoContext.suspend(co);
     }
@@ -311,20 +475,27 @@ public class NioScheduler implements Scheduler {
             return;
         }
         
-        Future<?> future = execute(() -> {
-            if (isTerminated()) {
-                return;
-            }
+        if (inScheduler()) {
+            recycle(ch);
+        } else {
+            dispatch(() -> recycle(ch));
+        }
+    }
 
-            NioCoChannel<?> scChan = slotCoChannel(ch);
-            if(scChan != null && scChan == ch) {
-                int slot = ch.id();
-                recycleChanSlot(slot);
-                debug("Close: %s", scChan);
-            }
-        });
+    private void recycle(NioCoChannel<?> ch) {
+        if (isTerminated()) {
+            return;
+        }
 
-        handleFuture(future);
+        NioCoChannel<?> scChan = slotCoChannel(ch);
+        if(scChan != null && scChan == ch) {
+            int slot = ch.id();
+            recycleChanSlot(slot);
+            if (ch instanceof NioCoSocket) {
+                ((NioCoSocket)ch).onClosed();
+            }
+            debug("Close: %s", scChan);
+        }
     }
     
     @Override
@@ -335,6 +506,32 @@ public class NioScheduler implements Scheduler {
             sel.wakeup();
         }
     }
+
+    @Override
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout,
+                                                      TimeUnit unit)
+            throws IllegalArgumentException {
+        if (quietPeriod < 0L || timeout < quietPeriod) {
+            String error = "quietPeriod " + quietPeriod + ", timeout " + timeout;
+            throw new IllegalArgumentException(error);
+        }
+
+        if (!this.graceful && !this.terminated) {
+            long now = System.nanoTime();
+            this.quietNanos = unit.toNanos(quietPeriod);
+            this.shutdownStart = now;
+            this.shutdownDeadline = now + unit.toNanos(timeout);
+            this.graceful = true;
+        }
+        shutdown();
+
+        return this.terminationFuture;
+    }
+
+    @Override
+    public CompletableFuture<Void> terminationFuture() {
+        return this.terminationFuture;
+    }
     
     @Override
     public boolean isStarted() {
@@ -348,16 +545,98 @@ public class NioScheduler implements Scheduler {
 
     @Override
     public CoContext fork(Coroutine c, AutoCloseable cleaner) {
-        attachCurrentThread();
+        return fork(c, cleaner, CoContext.PRIORITY_NORMAL);
+    }
 
-        CoroutineRunner runner = new CoroutineRunner(c);
-        CoContext context = new CoContext(runner, this, cleaner);
-        runner.setContext(context);
-        runner.execute();
+    @Override
+    public CoContext fork(Coroutine c, AutoCloseable cleaner, int priority)
+            throws IllegalArgumentException {
+        if (!isStarted()) attachCurrentThread();
+
+        final CoContext context;
+        final NioCoContextPool pool = this.contextPool;
+        if (pool != null && inScheduler()) {
+            context = pool.acquire(c, cleaner);
+        } else {
+            CoroutineRunner runner = new CoroutineRunner(c);
+            context = new CoContext(runner, this, cleaner);
+            runner.setContext(context);
+        }
+        context.setPriority(priority);
+        if (inScheduler()) {
+            context.start();
+        } else {
+            // Forked from another thread, e.g. the acceptor of a scheduler group
+            dispatch(context::start);
+        }
 
         return context;
     }
 
+    /** Set the max pooled context count of this scheduler, the completed coroutine
+     * contexts and runners are reused by the next forks in this scheduler when the
+     * size positive. The caller must not use a context after its coroutine completed
+     * if pooled. Only called in this scheduler or before it started.
+     *
+     * @param size the pool size, 0 means not pooled
+     * @throws IllegalArgumentException if the size negative
+     */
+    public void setContextPoolSize(int size) throws IllegalArgumentException {
+        if (size < 0) {
+            throw new IllegalArgumentException("size " + size);
+        }
+        if (isStarted()) {
+            ensureInScheduler();
+        }
+
+        if (size == 0) {
+            this.contextPool = null;
+        } else {
+            this.contextPool = new NioCoContextPool(this, size);
+        }
+    }
+
+    NioCoContextPool contextPool() {
+        return this.contextPool;
+    }
+
+    /** Allocate a stream buffer from the buffer arena of this scheduler if called in
+     * this scheduler, otherwise a heap buffer.
+     *
+     * @param size the min buffer capacity
+     * @return a cleared buffer
+     */
+    ByteBuffer allocateBuffer(int size) {
+        NioBufferArena arena = this.bufferArena;
+        if (arena == null || !inScheduler()) {
+            return ByteBuffer.allocate(size);
+        }
+        return arena.allocate(size);
+    }
+
+    /** Release the stream buffer into the buffer arena of this scheduler, and the
+     * releasing is dispatched into this scheduler if called from another thread.
+     * @threadsafe
+     *
+     * @param buf the released buffer
+     */
+    void releaseBuffer(ByteBuffer buf) {
+        NioBufferArena arena = this.bufferArena;
+        if (arena == null || !buf.isDirect()) {
+            return;
+        }
+
+        if (inScheduler()) {
+            arena.release(buf);
+        } else if (!isTerminated()) {
+            dispatch(() -> arena.release(buf));
+        }
+    }
+
+    NioBufferArena bufferArena() {
+        return this.bufferArena;
+    }
+
     @Override
     public boolean isShutdown() {
         return this.shutdown;
@@ -386,12 +665,51 @@ public class NioScheduler implements Scheduler {
         }
         
         this.channels[slot] = channel;
+        if (oldChan == null) {
+            this.connections++;
+        }
+        if (channel instanceof NioCoServerSocket) {
+            this.servers.add((NioCoServerSocket)channel);
+        }
         return this;
     }
+
+    /** Returns the number of the channels registered in this scheduler.
+     * @threadsafe
+     *
+     * @return the registered channel count
+     */
+    public int getConnections() {
+        return this.connections;
+    }
+
+    /** Returns the number of the registered channels and the sockets being handed
+     * off to this scheduler, for the least-connections choice of a scheduler group.
+     * @threadsafe
+     *
+     * @return the connection load
+     */
+    int getLoad() {
+        return this.connections + this.handOffs.get();
+    }
+
+    /** Returns the number of the sockets accepted into this scheduler, for checking
+     * the connection spread of a scheduler group.
+     * @threadsafe
+     *
+     * @return the accepted socket count
+     */
+    public long getAcceptedCount() {
+        return this.accepted;
+    }
     
     <S extends Channel> NioCoChannel<?> slotCoChannel(final NioCoChannel<S> channel) {
         int id = channel.id();
-        NioCoChannel<?> coChan = this.channels[id];
+        NioCoChannel<?>[] channels = this.channels;
+        if (id < 0 || id >= channels.length) {
+            return null;
+        }
+        NioCoChannel<?> coChan = channels[id];
 
         if(coChan == null || coChan != channel){
             return null;
@@ -401,61 +719,127 @@ public class NioScheduler implements Scheduler {
     }
     
     private int nextChanSlot() throws IOException {
-        final int slot = this.freeChanSlot;
-        if(slot != -1) {
-            this.freeChanSlot = -1;
-            return slot;
-        }
-            
         final NioCoChannel<?>[] channels = this.channels;
-        final int n = channels.length;
-        
+        final int[] freeSlots = this.freeSlots;
+        while (this.freeSize > 0) {
+            final int slot = freeSlots[--this.freeSize];
+            if (slot < this.maxChanSlot && channels[slot] == null) {
+                return slot;
+            }
+        }
+
         // quick allocate
-        if(this.maxChanSlot < n){
+        final int n = channels.length;
+        if (this.maxChanSlot < n) {
             return this.maxChanSlot++;
         }
-        
-        // traverse
-        for(int i = 0; i < n; ++i){
-            final NioCoChannel<?> coChan = channels[i];
-            if(coChan == null || !coChan.isOpen()){
-                return i;
-            }
-        }
-        
+
         // check limit
         if (this.maxChanSlot >= this.maxConnections) {
+            if (reclaimChanSlots() > 0) {
+                return nextChanSlot();
+            }
             // Too many connections
             throw new IOException("Too many connections: " + this.maxChanSlot);
         }
         
         // expand
         final int size = Math.min(this.maxConnections, Math.max(n << 1, 2));
-        final NioCoChannel<?>[] newChannels = new NioCoChannel<?>[size];
-        System.arraycopy(channels, 0, newChannels, 0, n);
-        this.channels = newChannels;
+        this.channels = Arrays.copyOf(channels, size);
         return this.maxChanSlot++;
     }
+
+    /** Reclaim the slots of the channels that closed but not recycled, only when the
+     * slots used up.
+     *
+     * @return the reclaimed slot count
+     */
+    private int reclaimChanSlots() {
+        final NioCoChannel<?>[] channels = this.channels;
+        int n = 0;
+        for (int i = 0, max = this.maxChanSlot; i < max; ++i) {
+            final NioCoChannel<?> c = channels[i];
+            if (c != null && !c.isOpen()) {
+                releaseChanSlot(channels, i);
+                pushFreeSlot(i);
+                ++n;
+            }
+        }
+        return n;
+    }
     
-    private void recycleChanSlot(final int slot){
-        this.channels[slot] = null;
-        this.freeChanSlot= slot;
-        if(slot == this.maxChanSlot - 1){
-            this.maxChanSlot--;
-            this.freeChanSlot = -1;
-            for(int i = slot - 1; i >= 0; --i){
-                final NioCoChannel<?> c = this.channels[i];
-                if(c != null && c.isOpen()){
-                    break;
-                }
-                this.channels[i] = null;
-                this.maxChanSlot--;
-                // recycle free slot
-                if(this.maxChanSlot == this.freeChanSlot) {
-                    this.freeChanSlot = -1;
-                }
+    private void recycleChanSlot(final int slot) {
+        final NioCoChannel<?>[] channels = this.channels;
+        releaseChanSlot(channels, slot);
+
+        if (slot != this.maxChanSlot - 1) {
+            pushFreeSlot(slot);
+            return;
+        }
+        // Trim the free top slots, the free stack entries of them become stale
+        int max = slot;
+        while (max > 0 && channels[max - 1] == null) {
+            --max;
+        }
+        this.maxChanSlot = max;
+        tryShrinkChannels();
+    }
+
+    private void releaseChanSlot(final NioCoChannel<?>[] channels, final int slot) {
+        final NioCoChannel<?> c = channels[slot];
+        channels[slot] = null;
+        this.connections--;
+        if (c instanceof NioCoServerSocket) {
+            this.servers.remove(c);
+        }
+    }
+
+    private void pushFreeSlot(final int slot) {
+        int[] freeSlots = this.freeSlots;
+        if (this.freeSize == freeSlots.length) {
+            this.freeSlots = freeSlots = Arrays.copyOf(freeSlots, freeSlots.length << 1);
+        }
+        freeSlots[this.freeSize++] = slot;
+    }
+
+    /** Halve the channel array till the used slots not below a quarter of it, but
+     * not less than the initConnections.
+     */
+    private void tryShrinkChannels() {
+        final int n = this.channels.length;
+        final int max = this.maxChanSlot;
+        if (n <= this.initConnections || max > (n >>> 2)) {
+            return;
+        }
+
+        int size = n;
+        while (size > this.initConnections && max <= (size >>> 2)) {
+            size >>>= 1;
+        }
+        size = Math.max(this.initConnections, size);
+        this.channels = Arrays.copyOf(this.channels, size);
+        // Drop the stale free slots
+        final int[] freeSlots = this.freeSlots;
+        int j = 0;
+        for (int i = 0, m = this.freeSize; i < m; ++i) {
+            final int slot = freeSlots[i];
+            if (slot < max) {
+                freeSlots[j++] = slot;
             }
         }
+        this.freeSize = j;
+        if (freeSlots.length > 16 && freeSlots.length > (size >>> 1)) {
+            this.freeSlots = Arrays.copyOf(freeSlots, Math.max(16, Math.max(j, size >>> 1)));
+        }
+        debug("Shrink channels: %s -> %s", n, size);
+    }
+
+    /** Returns the length of the channel slot array, for checking the slot allocator.
+     *
+     * @return the slot capacity
+     */
+    int getChanSlotCapacity() {
+        return this.channels.length;
     }
 
     @Override
@@ -473,13 +857,20 @@ public class NioScheduler implements Scheduler {
 
             // Do selection
             final int n = doSelect();
-            if (n == 0) {
-                execSyncRunners(endless);
+            if (n == 0 && this.readySize == 0) {
+                if (execSyncRunners(endless) > 0 && this.shutdown) {
+                    this.lastActive = System.nanoTime();
+                }
+                runAutoFlush();
                 continue;
             }
+            if (this.shutdown) {
+                this.lastActive = System.nanoTime();
+            }
 
             // Process & execute runners
-            if (ioRatio == 100) {
+            final int ratio = this.currentIoRatio;
+            if (ratio == 100) {
                 try {
                     processIO();
                 } finally {
@@ -490,64 +881,313 @@ public class NioScheduler implements Scheduler {
                 try {
                     processIO();
                 } finally {
-                    long ioTime = System.nanoTime() - ioStart;
-                    long nanos = ioTime * (100 - ioRatio) / ioRatio;
+                    long ioEnd = System.nanoTime();
+                    long ioTime = ioEnd - ioStart;
+                    long nanos = ioTime * (100 - ratio) / ratio;
                     execSyncRunners(nanos);
+                    if (this.adaptiveIoRatio) {
+                        adaptIoRatio(n, this.selectTime, ioTime, System.nanoTime() - ioEnd);
+                    }
                 }
             }
+            runAutoFlush();
         }
     }
     
     private int doSelect() throws IOError {
+        // Timeout in nanos
         long timeout = minRunAt();
+        if (this.flushAdded > 0) {
+            // Wake up for the auto-flush in the max delay
+            long delay = this.flushSince + this.autoFlushDelayNanos - System.nanoTime();
+            timeout = Math.min(timeout, Math.max(0L, delay));
+        }
 
+        this.selectTime = 0L;
         try {
             Selector selector = this.selector;
             // Quick for new timer, runner or shutdown
             boolean wakeup = this.wakeup.compareAndSet(true, false);
-            if (wakeup || timeout == 0) {
+            if (wakeup || timeout <= 0L || this.readySize > 0 || selectNowFor(timeout)) {
                 debug("selectNow()");
-                return selector.selectNow();
+                return selectNow(selector);
             }
             if (isShutdown()) {
-                timeout = Math.min(100, timeout);
+                timeout = Math.min(SHUTDOWN_SELECT_NANOS, timeout);
+            } else if (this.spinNanos > 0L) {
+                long start = System.nanoTime();
+                int n = spinSelect(selector, start + Math.min(this.spinNanos, timeout));
+                long spent = System.nanoTime() - start;
+                this.spinTime += spent;
+                if (n != -1) {
+                    return n;
+                }
+                if (timeout != Long.MAX_VALUE) {
+                    timeout -= spent;
+                }
+                if (timeout <= 0L || selectNowFor(timeout)) {
+                    return selectNow(selector);
+                }
             }
 
-            return selector.select(timeout);
+            // Round up: never wake before the next timer, but round down for the
+            // sub-millisecond tick, and then spin to the deadline by selectNow()
+            long millis = timeout == Long.MAX_VALUE? 0L: TIMER_TICK < SELECT_MIN_NANOS?
+                    timeout / SELECT_MIN_NANOS: (timeout + SELECT_MIN_NANOS - 1) / SELECT_MIN_NANOS;
+            return selector.select(millis);
         } catch (IOException e) {
             throw new IOError(e);
         }
     }
     
+    /** Returns true if select() can't wait the timeout, i.e. a sub-millisecond timer
+     * when the timer tick is sub-millisecond, then the loop spins to the deadline by
+     * selectNow(). Otherwise, select() waits at least 1ms, for the timers can't be
+     * run before the tick boundary anyway.
+     */
+    private static boolean selectNowFor(long timeout) {
+        return TIMER_TICK < SELECT_MIN_NANOS && timeout < SELECT_MIN_NANOS;
+    }
+
+    private int selectNow(Selector selector) throws IOException {
+        this.selectNows++;
+        if (!this.adaptiveIoRatio) {
+            return selector.selectNow();
+        }
+        long start = System.nanoTime();
+        try {
+            return selector.selectNow();
+        } finally {
+            this.selectTime = System.nanoTime() - start;
+        }
+    }
+
+    /** Busy-poll the selector by selectNow() till the deadline.
+     *
+     * @return the selected key count, 0 if woken up for tasks, or -1 if nothing
+     *  ready till the deadline
+     */
+    private int spinSelect(Selector selector, long deadline) throws IOException {
+        final AtomicBoolean wakeup = this.wakeup;
+        do {
+            int n = selector.selectNow();
+            if (n > 0) {
+                this.spinHits++;
+                return n;
+            }
+            if (wakeup.get()) {
+                wakeup.set(false);
+                this.spinHits++;
+                return 0;
+            }
+            RuntimeUtils.onSpinWait();
+        } while (System.nanoTime() - deadline < 0L);
+
+        return -1;
+    }
+
+    /** Returns the busy-poll time before the blocking select.
+     * @threadsafe
+     *
+     * @return the spin time in micros, 0 if not spin
+     */
+    public long getSpinMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.spinNanos);
+    }
+
+    /** Set the busy-poll time before the blocking select, for trading CPU for the
+     * latency on the dedicated cores. The default is the system property
+     * "io.co.spinMicros", 0 if not set.
+     * @threadsafe
+     *
+     * @param spinMicros the spin time in micros, 0 means no spin
+     */
+    public void setSpinMicros(long spinMicros) throws IllegalArgumentException {
+        if (spinMicros < 0L) {
+            throw new IllegalArgumentException("spinMicros " + spinMicros);
+        }
+        this.spinNanos = TimeUnit.MICROSECONDS.toNanos(spinMicros);
+    }
+
+    /** Returns the total time spent in spinning.
+     * @threadsafe
+     *
+     * @return the spin time in nanos
+     */
+    public long getSpinTime() {
+        return this.spinTime;
+    }
+
+    /** Returns the number of the selects that got the IO events or tasks in spinning,
+     * instead of falling back to the blocking select.
+     * @threadsafe
+     *
+     * @return the spin hit count
+     */
+    public long getSpinHits() {
+        return this.spinHits;
+    }
+
+    /** Returns whether the socket outputs are flushed by this scheduler at the end of
+     * each loop.
+     * @threadsafe
+     *
+     * @return true if auto-flush
+     */
+    public boolean isAutoFlush() {
+        return this.autoFlush;
+    }
+
+    /** Set the auto-flush mode: the buffered bytes of the sockets are flushed once at
+     * the end of each loop, so that the small messages written by the coroutines in a
+     * loop go out in one syscall per socket, and the coroutines needn't flush. The
+     * explicit flush still works. The default is the system property "io.co.autoFlush".
+     * @threadsafe
+     *
+     * @param autoFlush true if auto-flush
+     */
+    public void setAutoFlush(boolean autoFlush) {
+        this.autoFlush = autoFlush;
+    }
+
+    /** Returns the max delay of the buffered bytes in auto-flush.
+     * @threadsafe
+     *
+     * @return the max delay in micros, 0 if flushed in the current loop
+     */
+    public long getAutoFlushDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.autoFlushDelayNanos);
+    }
+
+    /** Set the max delay of the buffered bytes in auto-flush, for coalescing the
+     * writes across loops in the bounded latency. The default is the system property
+     * "io.co.autoFlush.maxDelayMicros", 0 if not set.
+     * @threadsafe
+     *
+     * @param delayMicros the max delay in micros, 0 means flushed in the current loop
+     */
+    public void setAutoFlushDelayMicros(long delayMicros) throws IllegalArgumentException {
+        if (delayMicros < 0L) {
+            throw new IllegalArgumentException("delayMicros " + delayMicros);
+        }
+        this.autoFlushDelayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+    }
+
+    /** Returns the number of the streams flushed by the auto-flush.
+     * @threadsafe
+     *
+     * @return the auto-flush count
+     */
+    public long getAutoFlushes() {
+        return this.autoFlushes;
+    }
+
+    /** Queue the output stream that becomes dirty for the auto-flush.
+     *
+     * @param out the dirty output stream
+     */
+    void autoFlush(NioCoOutputStream out) {
+        if (this.flushAdded++ == 0) {
+            this.flushSince = System.nanoTime();
+        }
+        if (!out.flushQueued) {
+            out.flushQueued = true;
+            this.flushQueue.offer(out);
+        }
+    }
+
+    /** Flush the queued output streams at the end of the loop, if any stream became
+     * dirty and the max delay expired. The stream that can't be flushed fully waits
+     * for the write interest in the queue.
+     */
+    void runAutoFlush() {
+        if (this.flushAdded == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (now - this.flushSince < this.autoFlushDelayNanos) {
+            return;
+        }
+
+        final ArrayDeque<NioCoOutputStream> queue = this.flushQueue;
+        long flushes = 0;
+        this.flushAdded = 0;
+        for (int i = queue.size(); i > 0; --i) {
+            NioCoOutputStream out = queue.poll();
+            if (out.dirty) {
+                ++flushes;
+                if (!out.flushBuffered()) {
+                    queue.offer(out);
+                    continue;
+                }
+            }
+            out.flushQueued = false;
+        }
+        this.autoFlushes += flushes;
+    }
+
+    /** Try to terminate this scheduler if shutdown: close the server sockets to stop
+     * accepting, then terminate when the live channels drained, and no IO or task in
+     * the quiet period if graceful. The graceful shutdown force-closes the rest
+     * channels at the deadline. The live channels are counted incrementally, and the
+     * closed but not recycled ones are reclaimed at most once per second.
+     *
+     * @return true if terminated, otherwise false
+     */
     private boolean tryShutdown() {
         ensureNotFatal();
         if (!isShutdown()) {
             return false;
         }
-        
-        NioCoChannel<?>[] channels = this.channels;
-        int id = -1, n = channels.length;
-        for (int i = 0; i < n; ++i) {
-            NioCoChannel<?> runChan = channels[i];
-            if (runChan == null || !runChan.isOpen()) {
-                continue;
+
+        final List<NioCoServerSocket> servers = this.servers;
+        if (!servers.isEmpty()) {
+            for (NioCoServerSocket server: servers.toArray(new NioCoServerSocket[0])) {
+                IoUtils.close(server);
             }
-            Channel ch = runChan.channel();
-            if (ch instanceof ServerSocketChannel) {
-                IoUtils.close(runChan);
-                continue;
+            servers.clear();
+        }
+
+        final long now = System.nanoTime();
+        final boolean graceful = this.graceful;
+        final boolean timeout = graceful && now - this.shutdownDeadline >= 0L;
+        if (this.connections > 0) {
+            if (timeout) {
+                debug("tryShutdown(): force close %s channels", this.connections);
+                closeChannels();
+            } else {
+                if (now - this.lastReclaim >= SHUTDOWN_RECLAIM_NANOS) {
+                    this.lastReclaim = now;
+                    reclaimChanSlots();
+                }
+                if (this.connections > 0) {
+                    debug("tryShutdown(): live channels %s", this.connections);
+                    return false;
+                }
             }
-            id = i;
         }
 
-        if (id == -1) {
-            terminate();
-            // Exit normally
-            return true;
-        } else {
-            debug("tryShutdown(): last active channel %s", id);
+        if (this.handOffs.get() > 0) {
+            // The hand-off tasks in the queue close their sockets
             return false;
         }
+        if (graceful && !timeout) {
+            long last = Math.max(this.lastActive, this.shutdownStart);
+            if (now - last < this.quietNanos) {
+                return false;
+            }
+        }
+
+        terminate();
+        // Exit normally
+        return true;
+    }
+
+    private void closeChannels() {
+        final NioCoChannel<?>[] channels = this.channels;
+        for (int i = 0, n = Math.min(this.maxChanSlot, channels.length); i < n; ++i) {
+            IoUtils.close(channels[i]);
+        }
     }
 
     protected void ensureNotFatal() throws Error {
@@ -556,6 +1196,7 @@ public class NioScheduler implements Scheduler {
             for (NioCoChannel<?> c: this.channels) {
                 IoUtils.close(c);
             }
+            this.terminationFuture.completeExceptionally(fatal);
             terminate();
             throw new Error(fatal);
         }
@@ -569,63 +1210,199 @@ public class NioScheduler implements Scheduler {
     }
     
     private void processIO() {
-        Set<SelectionKey> selKeys = this.selector.selectedKeys();
-        final Iterator<SelectionKey> i = selKeys.iterator();
-
-        while (i.hasNext()) {
-            NioCoChannel<?> coChan = null;
-            boolean failed = true;
-            try {
+        final NioSelectedKeySet keySet = this.selectedKeys;
+        if (keySet != null) {
+            processIO(keySet);
+        } else {
+            Set<SelectionKey> selKeys = this.selector.selectedKeys();
+            final Iterator<SelectionKey> i = selKeys.iterator();
+            while (i.hasNext()) {
                 final SelectionKey key = i.next();
-                if (!key.isValid()) {
-                    continue;
-                }
+                i.remove();
+                processKey(key);
+            }
+        }
 
-                coChan = (NioCoChannel<?>)key.attachment();
-                if (key.isAcceptable()) {
-                    doAccept(key);
-                    failed = false;
-                    continue;
-                }
-                if (key.isConnectable()) {
-                    doConnect(key);
-                    failed = false;
-                    continue;
-                }
-                if (key.isReadable()) {
-                    doRead(key);
-                }
-                if (key.isValid() && key.isWritable()) {
-                    doWrite(key);
-                }
+        runReady();
+    }
+
+    /** Queue the socket for resuming its coroutine in the ready run of this loop or
+     * the next loops.
+     *
+     * @param socket the ready socket
+     */
+    void ready(NioCoSocket socket) {
+        CoContext context = socket.getContext();
+        int priority = context == null? CoContext.PRIORITY_NORMAL: context.getPriority();
+        ready(socket, priority);
+    }
+
+    void ready(NioCoSocket socket, int priority) {
+        socket.ready = true;
+        socket.readyTurn = this.readyTurns;
+        this.readyQueues[priority].offer(socket);
+        this.readySize++;
+    }
+
+    /** Resume the coroutines of the ready sockets, the higher priority first and FIFO
+     * in a priority, in the budget of operations and time. The sockets queued in this
+     * run, e.g. the coroutine that yields after reading too much, and the ones out of
+     * the budget wait for the next loop.
+     */
+    private void runReady() {
+        final int n = Math.min(this.readySize, READY_BUDGET);
+        final long turn = ++this.readyTurns;
+        if (n == 0) {
+            return;
+        }
+
+        final long deadline = System.nanoTime() + READY_BUDGET_NANOS;
+        for (int i = 0; i < n; ++i) {
+            NioCoSocket socket = pollReady(turn);
+            if (socket == null) {
+                // The rest queued in this run
+                break;
+            }
+            socket.resumeReady();
+            if ((i & 0xf) == 0xf && System.nanoTime() - deadline >= 0L) {
+                break;
+            }
+        }
+    }
+
+    /** Poll the next ready socket: the head of a lower priority queue that has waited
+     * AGING_TURNS loops is served first, otherwise the head of the highest priority
+     * queue. The sockets queued in the current turn are deferred to the next turn, so
+     * a coroutine re-queued when resumed isn't resumed again in the same run.
+     *
+     * @param turn the current ready run turn
+     * @return the next ready socket, or null if no ready socket before this turn
+     */
+    NioCoSocket pollReady(long turn) {
+        final ArrayDeque<NioCoSocket>[] queues = this.readyQueues;
+        final int levels = queues.length;
+        NioCoSocket socket = null;
+
+        for (int i = levels - 1; i > 0; --i) {
+            NioCoSocket head = queues[i].peek();
+            if (head != null && turn - head.readyTurn >= AGING_TURNS) {
+                socket = queues[i].poll();
+                break;
+            }
+        }
+        for (int i = 0; socket == null && i < levels; ++i) {
+            NioCoSocket head = queues[i].peek();
+            if (head != null && head.readyTurn != turn) {
+                socket = queues[i].poll();
+            }
+        }
+        if (socket != null) {
+            this.readySize--;
+        }
+
+        return socket;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayDeque<NioCoSocket>[] newReadyQueues() {
+        final int levels = CoContext.PRIORITY_LEVELS;
+        ArrayDeque<NioCoSocket>[] queues = (ArrayDeque<NioCoSocket>[])new ArrayDeque<?>[levels];
+        for (int i = 0; i < queues.length; ++i) {
+            queues[i] = new ArrayDeque<>();
+        }
+        return queues;
+    }
+
+    private void processIO(final NioSelectedKeySet keySet) {
+        final SelectionKey[] keys = keySet.keys;
+        final int n = keySet.size;
+        int i = 0;
+        try {
+            for (; i < n; ++i) {
+                final SelectionKey key = keys[i];
+                keys[i] = null;
+                processKey(key);
+            }
+        } finally {
+            keySet.reset(i);
+        }
+    }
+
+    private void processKey(final SelectionKey key) {
+        NioCoChannel<?> coChan = null;
+        boolean failed = true;
+        try {
+            if (!key.isValid()) {
                 failed = false;
-            } finally {
-                if(failed){
-                    IoUtils.close(coChan);
-                }
-                i.remove();
+                return;
+            }
+
+            coChan = (NioCoChannel<?>)key.attachment();
+            if (key.isAcceptable()) {
+                doAccept(key);
+                failed = false;
+                return;
+            }
+            if (key.isConnectable()) {
+                doConnect(key);
+                failed = false;
+                return;
+            }
+            if (key.isReadable()) {
+                doRead(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                doWrite(key);
+            }
+            failed = false;
+        } finally {
+            if(failed){
+                IoUtils.close(coChan);
             }
         }
     }
     
-    private void execSyncRunners(final long runNanos) {
+    private int execSyncRunners(final long runNanos) {
+        final MpscArrayQueue<Runnable> queue = this.syncQueue;
+        final MpscArrayQueue<Runnable> urgent = this.urgentQueue;
         final long deadNano = System.nanoTime() + runNanos;
+        int total = 0;
 
         while (true) {
+            // A batch of the urgent and then normal tasks: not starve the normal ones
+            final int u = urgent.drain(this.taskRunner, TASK_BATCH);
+            final int n = queue.drain(this.taskRunner, TASK_BATCH);
+            // The spilled tasks after the task queue drained, for they're newer
+            final int o = n < TASK_BATCH? drainOverflow(TASK_BATCH): 0;
+            total += u + n + o;
+            if (u < TASK_BATCH && n < TASK_BATCH && o < TASK_BATCH) {
+                return total;
+            }
             if (runNanos > 0 && System.nanoTime() >= deadNano) {
-                return;
+                return total;
             }
+        }
+    }
 
-            final Runnable runner = this.syncQueue.poll();
-            if (runner == null) {
-                return;
-            }
-            if (runner instanceof FutureTask) {
-                FutureTask<?> task = (FutureTask<?>)runner;
-                if (task.isCancelled()) continue;
-            }
+    private int drainOverflow(final int limit) {
+        final Queue<Runnable> overflow = this.overflowQueue;
+        int n = 0;
+        for (Runnable task; n < limit && (task = overflow.poll()) != null; ++n) {
+            runTask(task);
+        }
+        return n;
+    }
 
-            runner.run();
+    private void runTask(final Runnable task) {
+        if (task instanceof FutureTask) {
+            FutureTask<?> future = (FutureTask<?>)task;
+            if (future.isCancelled()) return;
+        }
+
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            error("Task failed: " + task, e);
         }
     }
     
@@ -635,21 +1412,20 @@ public class NioScheduler implements Scheduler {
         IoUtils.close(this.selector);
         shutdown();
         this.channels = null;
-        this.timers   = null;
+        this.timerWheel = null;
         this.terminated = true;
+        this.terminationFuture.complete(null);
         debug("terminated");
     }
     
     protected void doWrite(final SelectionKey key) {
         final NioCoSocket socket = (NioCoSocket)key.attachment();
-        CoContext context = socket.getContext();
-        context.resume();
+        socket.onReady(SelectionKey.OP_WRITE);
     }
     
     protected void doRead(final SelectionKey key) {
         final NioCoSocket socket = (NioCoSocket)key.attachment();
-        CoContext context = socket.getContext();
-        context.resume();
+        socket.onReady(SelectionKey.OP_READ);
     }
     
     protected void doConnect(final SelectionKey key) {
@@ -667,7 +1443,7 @@ public class NioScheduler implements Scheduler {
             socket.cancelConnectionTimer();
             ch.finishConnect();
             debug("doConnect(): %s", ch);
-            IoUtils.disableOps(SelectionKey.OP_CONNECT, key, this.selector, socket);
+            socket.interestOps(0);
             context.attach(socket);
             failed = false;
         } catch (IOException cause) {
@@ -695,15 +1471,27 @@ public class NioScheduler implements Scheduler {
             ch = ssChan.accept();
             ch.configureBlocking(false);
             ch.socket().setTcpNoDelay(true);
-            socket = new NioCoSocket(ch, this);
-            try {
-                register(socket);
-                result = new AcceptResult(socket);
-                failed = false;
-            } catch (IOException cause) {
-                debug("Register socket error", cause);
-                return;
+            NioScheduler child = server.childScheduler();
+            socket = new NioCoSocket(ch, child);
+            if (child == this) {
+                try {
+                    register(socket);
+                    this.accepted++;
+                } catch (IOException cause) {
+                    debug("Register socket error", cause);
+                    return;
+                }
+            } else {
+                try {
+                    handOff(child, socket);
+                } catch (IllegalStateException cause) {
+                    // Close this connection only, and keep accepting
+                    debug("Hand off socket error", cause);
+                    return;
+                }
             }
+            result = new AcceptResult(socket);
+            failed = false;
         } catch (IOException cause) {
             debug("Accept socket error", cause);
             result = new AcceptResult(cause);
@@ -722,158 +1510,224 @@ public class NioScheduler implements Scheduler {
         }
     }
 
-    int nextTimerSlot() {
-        final int freeSlot = this.freeTimerSlot;
-        final int maxSlot = this.maxTimerSlot;
-        
-        debug("nextTimerSlot(): freeSlot = %s, maxSlot = %s", freeSlot, maxSlot);
-        if (freeSlot != -1) {
-            this.freeTimerSlot = -1;
-            return freeSlot;
-        }
-
-        final NioCoTimer[] timers = this.timers;
-        final int n = timers.length;
-
-        if (maxSlot < n) {
-            if (maxSlot > 0) {
-                final int slot = maxSlot - 1;
-                // First try to reuse the last slot!
-                final NioCoTimer tailTimer = timers[slot];
-                if (tailTimer == null || tailTimer.isCanceled()) {
-                    timers[slot] = null;
-                    return slot;
-                }
-            }
-
-            return this.maxTimerSlot++;
+    /** Migrate the socket to the target scheduler, e.g. move a hot connection off an
+     * overloaded scheduler. It should be called in this scheduler thread when the
+     * coroutine of the socket is suspended for the socket IO: the channel and slot
+     * are deregistered here, then re-registered in the target thread with the same
+     * interest ops and read deadline, and the coroutine is resumed in the target
+     * thread when the socket is ready.
+     *
+     * @param socket the migrated socket
+     * @param target the target scheduler
+     * @throws IllegalStateException if not called in this scheduler thread, the
+     *  socket can't be migrated, or the target scheduler not running
+     */
+    public void migrate(NioCoSocket socket, NioScheduler target)
+            throws IllegalStateException {
+        checkMigrate(socket, target);
+        if (socket.getContext() == null || socket.ready) {
+            throw new IllegalStateException("Socket not waiting for IO: " + socket);
         }
+        migrate(socket, target, false);
+    }
 
-        for (int i = 0; i < n; ++i) {
-            final NioCoTimer timer = timers[i];
-            if (timer == null || timer.isCanceled()) {
-                return i;
-            }
+    void checkMigrate(NioCoSocket socket, NioScheduler target)
+            throws IllegalStateException {
+        ensureInScheduler();
+        if (socket.getScheduler() != this) {
+            throw new IllegalStateException("Socket not in " + this.name + ": " + socket);
+        }
+        if (socket.isLocalScheduler() || !socket.isConnected()) {
+            throw new IllegalStateException("Socket can't be migrated: " + socket);
+        }
+        if (slotCoChannel(socket) == null) {
+            throw new IllegalStateException("Socket not registered: " + socket);
+        }
+        if (!target.isStarted() || target.isShutdown()) {
+            throw new IllegalStateException("Target not running: " + target.getName());
         }
+    }
 
-        // expand
-        final NioCoTimer[] newTimers = new NioCoTimer[n << 1];
-        System.arraycopy(timers, 0, newTimers, 0, n);
-        this.timers = newTimers;
+    void migrate(NioCoSocket socket, NioScheduler target, boolean resume) {
+        if (target == this) {
+            if (resume) socket.getContext().resume();
+            return;
+        }
 
-        return this.maxTimerSlot++;
+        CoContext context = socket.getContext();
+        if (socket.id() == -1 || slotCoChannel(socket) == null) {
+            // Closed before migrating
+            if (resume) {
+                context.attach(new ClosedChannelException());
+                context.resume();
+            }
+            return;
+        }
+        // The dirty output is queued again in the target
+        NioCoOutputStream out = (NioCoOutputStream)socket.getOutputStream();
+        if (out.flushQueued) {
+            this.flushQueue.remove(out);
+            out.flushQueued = false;
+        }
+        // The stream buffers are leased from the arena of this scheduler
+        ((NioCoInputStream)socket.getInputStream()).migrateBuffer();
+        out.migrateBuffer();
+        int slot = socket.id();
+        int ops = socket.deregister();
+        recycleChanSlot(slot);
+        socket.setScheduler(target);
+        context.setScheduler(target);
+        debug("Migrate %s to %s", socket, target.getName());
+        target.dispatch(() -> target.adopt(socket, ops, resume));
     }
 
-    protected long minRunAt() {
-        List<NioCoTimer> runTimers = new ArrayList<>();
-        long min = minRunAt(runTimers);
-        // recycle timer slot
-        recycleTimerSlots();
-        this.timersChanged = false;
-        // Execute timer
-        runTimers.forEach(this::runTimer);
+    private void adopt(NioCoSocket socket, int ops, boolean resume) {
+        CoContext context = socket.getContext();
+        try {
+            register(socket);
+            socket.interestOps(ops);
+            socket.rearmReadTimer();
+            NioCoOutputStream out = (NioCoOutputStream)socket.getOutputStream();
+            if (out.dirty) {
+                autoFlush(out);
+            }
+        } catch (IOException cause) {
+            debug("Adopt socket error", cause);
+            IoUtils.close(socket);
+            context.attach(cause);
+            resume = true;
+        }
+        if (resume) {
+            context.resume();
+        }
+    }
 
-        // Note: we must calculate minRunAt again for select()
-        // if some timers are added after timers running
-        if (this.timersChanged) {
-            min = minRunAt(null);
+    /** Hand off the accepted socket to the child scheduler: the socket is registered
+     * in the child thread, and the task runs before any coroutine forked on it by the
+     * acceptor, for the task queue is FIFO. The hand-off is counted before checking
+     * the shutdown, and the child doesn't terminate till the counted ones run, so the
+     * task never gets lost; the socket is closed if the child shutdown meanwhile.
+     *
+     * @throws IllegalStateException if the child scheduler shutdown
+     */
+    static void handOff(NioScheduler child, NioCoSocket socket) throws IllegalStateException {
+        final AtomicInteger handOffs = child.handOffs;
+        handOffs.incrementAndGet();
+        if (child.isShutdown()) {
+            handOffs.decrementAndGet();
+            throw new IllegalStateException(child.getName() + " shutdown");
         }
+        child.dispatch(() -> {
+            try {
+                if (child.isShutdown()) {
+                    debug("Hand off socket after shutdown: %s", socket);
+                    IoUtils.close(socket.channel());
+                    return;
+                }
+                child.register(socket);
+                child.accepted++;
+            } catch (IOException cause) {
+                debug("Register socket error", cause);
+                IoUtils.close(socket.channel());
+            } finally {
+                handOffs.decrementAndGet();
+            }
+        });
+    }
 
-        return min;
+    /** Run the due timers, and returns the time to the next timer.
+     *
+     * @return the time in nanos to the next timer, or Long.MAX_VALUE if no timer
+     */
+    protected long minRunAt() {
+        final NioTimerWheel wheel = this.timerWheel;
+        wheel.expire(System.nanoTime(), this.timerRunner);
+        // Note: calculate after running timers, for some timers may be added
+        return wheel.nextTimeout(System.nanoTime());
     }
 
     protected void runTimer(NioCoTimer timer) {
         try {
             timer.run();
+            if (timer.period() > 0L && !timer.isCanceled()) {
+                // Periodic timer: next() has moved the runat
+                this.timerWheel.add(timer);
+            }
         } catch (Exception e) {
             timer.cancel();
             debug("Timer runs error", e);
         }
     }
-
-    protected long minRunAt(final List<NioCoTimer> runTimers) {
-        final NioCoTimer[] timers  = this.timers;
-
-        final int n = Math.min(this.maxTimerSlot, timers.length);
-        final long cur = System.currentTimeMillis();
-        long min = Long.MAX_VALUE;
-
-        for (int i = 0; i < n; ++i) {
-            final NioCoTimer timer = timers[i];
-            if (timer == null || timer.isCanceled()) {
-                timers[i] = null;
-                this.freeTimerSlot = i;
-                continue;
-            }
-            final long runAt = timer.runat();
-            if (runAt <= cur) {
-                if (runTimers == null) {
-                    min = cur;
-                    continue;
-                }
-                int j = runTimers.size();
-                if (j == 0) {
-                    runTimers.add(timer);
-                    continue;
-                }
-                // Insertion sort
-                for (; j > 0; --j) {
-                    NioCoTimer t = runTimers.get(j - 1);
-                    if(runAt < t.runat()){
-                        continue;
-                    }
-                    runTimers.add(j, timer);
-                    break;
-                }
-                continue;
-            }
-            if (runAt < min) {
-                min = runAt;
-            }
-        }
-
-        return  (min - cur);
-    }
     
     void cancel(final NioCoTimer coTimer) {
-        final NioCoTimer[] timers = this.timers;
-        final int slot = coTimer.id;
-        final NioCoTimer timer = timers[slot];
-
-        if (timer == coTimer) {
-            recycleTimer(slot);
+        final NioTimerWheel wheel = this.timerWheel;
+        if (wheel != null) {
+            wheel.remove(coTimer);
         }
     }
     
-    private void recycleTimer(final int slot){
-        final NioCoTimer[] timers = this.timers;
-        timers[slot] = null;
-        this.freeTimerSlot = slot;
-        
-        if(slot == this.maxTimerSlot - 1){
-            this.maxTimerSlot--;
-            // Free slot recycled!
-            this.freeTimerSlot = -1;
-            recycleTimerSlots();
+    /** Adjust the ioRatio by the feedback of this loop: raise it when the tasks
+     * delay the IO too long, lower it when the tasks are left in the queue after the
+     * task budget used up, otherwise return to the configured ioRatio gradually.
+     * The loop latency counts the non-blocking select, but not the select that waits
+     * or spins: it only waits when no task is queued and no socket is ready, so that
+     * time is idle instead of delaying any work.
+     *
+     * @param keys the ready key count
+     * @param selectTime the non-blocking select time in nanos, 0 if it waited
+     * @param ioTime the IO processing time in nanos
+     * @param taskTime the task running time in nanos
+     */
+    void adaptIoRatio(int keys, long selectTime, long ioTime, long taskTime) {
+        int ratio = this.currentIoRatio;
+        int depth = this.syncQueue.size() + this.urgentQueue.size();
+
+        if (selectTime + ioTime + taskTime > LOOP_LATENCY_NANOS && taskTime > ioTime) {
+            ratio += IO_RATIO_STEP;
+        } else if (depth > keys) {
+            ratio -= IO_RATIO_STEP;
+        } else if (depth > 0) {
+            ratio -= 1;
+        } else if (ratio != ioRatio) {
+            ratio += (ratio < ioRatio? 1: -1);
         }
+
+        this.currentIoRatio = clampIoRatio(ratio);
     }
-    
-    private void recycleTimerSlots() {
-        final NioCoTimer[] timers = this.timers;
-        for(int i = this.maxTimerSlot - 1; i >= 0; --i){
-            final NioCoTimer timer = timers[i];
-            if(timer != null && !timer.isCanceled()){
-                break;
-            }
-            timers[i] = null;
-            this.maxTimerSlot--;
-            // Free slot recycled!
-            if(this.maxTimerSlot == this.freeTimerSlot) {
-                this.freeTimerSlot = -1;
-            }
+
+    /** Returns the current ioRatio, the percent of the loop time for IO processing.
+     * @threadsafe
+     *
+     * @return the current ioRatio, it changes in each loop if adaptive
+     */
+    public int getIoRatio() {
+        return this.currentIoRatio;
+    }
+
+    public boolean isAdaptiveIoRatio() {
+        return this.adaptiveIoRatio;
+    }
+
+    /** Enable or disable the adaptive ioRatio, the default is the system property
+     * "io.co.ioRatio.adaptive". The ioRatio is reset to the configured one when
+     * disabled.
+     * @threadsafe
+     *
+     * @param adaptive adjust the ioRatio in each loop if true
+     */
+    public void setAdaptiveIoRatio(boolean adaptive) {
+        this.adaptiveIoRatio = adaptive;
+        if (adaptive) {
+            this.currentIoRatio = clampIoRatio(this.currentIoRatio);
+        } else {
+            this.currentIoRatio = ioRatio;
         }
     }
-    
+
+    static int clampIoRatio(int ratio) {
+        return Math.max(IO_RATIO_MIN, Math.min(IO_RATIO_MAX, ratio));
+    }
+
     static int initIoRatio() {
         final int ioRatio = Integer.getInteger("io.co.ioRatio", 50);
         if(ioRatio <= 0 || ioRatio > 100) {
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.CoServerSocket;
+import io.co.Scheduler;
+import io.co.util.IoUtils;
+import io.co.util.RuntimeUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * A group of NIO schedulers, each scheduler runs in its own thread, so that
+ * the connections can be spread over multiple cores.
+ *
+ * @author little-pan
+ * @since 2021-04-20
+ *
+ */
+public class NioSchedulerGroup {
+
+    public static final int SIZE = Integer.getInteger("io.co.group.size", RuntimeUtils.processors());
+    static final boolean LEAST_CONNECTIONS = Boolean.getBoolean("io.co.group.leastConnections");
+
+    protected final String name;
+    private final NioScheduler[] schedulers;
+    private final Thread[] threads;
+    private final boolean leastConnections;
+    private final AtomicInteger index;
+    private volatile boolean started;
+
+    public NioSchedulerGroup() {
+        this(SIZE);
+    }
+
+    public NioSchedulerGroup(int size) {
+        this(Scheduler.NAME, size);
+    }
+
+    public NioSchedulerGroup(String name, int size) {
+        this(name, size, LEAST_CONNECTIONS);
+    }
+
+    /** Create a scheduler group.
+     *
+     * @param name the group name, also the name prefix of the schedulers
+     * @param size the scheduler count
+     * @param leastConnections choose the scheduler that has the fewest connections
+     *  when true, otherwise choose the scheduler round-robin
+     */
+    public NioSchedulerGroup(String name, int size, boolean leastConnections) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size " + size);
+        }
+
+        this.name = name;
+        this.schedulers = new NioScheduler[size];
+        this.threads = new Thread[size];
+        this.leastConnections = leastConnections;
+        this.index = new AtomicInteger();
+        for (int i = 0; i < size; ++i) {
+            this.schedulers[i] = new NioScheduler(name + "-" + i);
+        }
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int size() {
+        return this.schedulers.length;
+    }
+
+    public NioScheduler get(int i) {
+        return this.schedulers[i];
+    }
+
+    public boolean isLeastConnections() {
+        return this.leastConnections;
+    }
+
+    public boolean isStarted() {
+        return this.started;
+    }
+
+    /** Start all schedulers of this group, and return after every scheduler attached
+     * its own thread. It's a noop if this group had been started.
+     *
+     * @throws IllegalStateException if interrupted when starting
+     */
+    public synchronized void start() throws IllegalStateException {
+        if (this.started) {
+            return;
+        }
+
+        NioScheduler[] schedulers = this.schedulers;
+        int n = schedulers.length;
+        CountDownLatch latch = new CountDownLatch(n);
+        for (int i = 0; i < n; ++i) {
+            NioScheduler scheduler = schedulers[i];
+            Thread thread = new Thread(() -> {
+                try {
+                    scheduler.attachCurrentThread();
+                } finally {
+                    latch.countDown();
+                }
+                scheduler.run();
+            }, scheduler.getName());
+            this.threads[i] = thread;
+            thread.start();
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted when starting " + this.name);
+        }
+        this.started = true;
+        debug("%s started: size %s", this.name, n);
+    }
+
+    /** Choose the next scheduler, and start this group if not started.
+     * @threadsafe
+     *
+     * @return the next scheduler
+     */
+    public NioScheduler next() {
+        if (!this.started) start();
+
+        NioScheduler[] schedulers = this.schedulers;
+        int n = schedulers.length;
+        int i = (this.index.getAndIncrement() & Integer.MAX_VALUE) % n;
+        if (!this.leastConnections) {
+            return schedulers[i];
+        }
+
+        // Start from the round-robin position to balance the ties
+        NioScheduler least = schedulers[i];
+        int min = least.getLoad();
+        for (int j = 1; j < n && min > 0; ++j) {
+            NioScheduler s = schedulers[(i + j) % n];
+            int conns = s.getLoad();
+            if (conns < min) {
+                least = s;
+                min = conns;
+            }
+        }
+
+        return least;
+    }
+
+    public NioCoServerSocket[] bind(int port) throws IOException {
+        return bind(new InetSocketAddress(port));
+    }
+
+    public NioCoServerSocket[] bind(SocketAddress endpoint) throws IOException {
+        return bind(endpoint, CoServerSocket.BACKLOG_DEFAULT);
+    }
+
+    /** Bind one listening server socket per scheduler to the same endpoint with
+     * SO_REUSEPORT, then the kernel spreads the incoming connections over the
+     * schedulers without any cross-thread handoff. The caller should fork an
+     * accept coroutine in the scheduler of each server socket.
+     *
+     * @param endpoint the bound endpoint
+     * @param backlog the listen backlog of each server socket
+     * @return the bound server sockets, the i-th runs in the i-th scheduler
+     * @throws IOException if SO_REUSEPORT not supported or bind failed
+     */
+    public NioCoServerSocket[] bind(SocketAddress endpoint, int backlog) throws IOException {
+        start();
+
+        NioScheduler[] schedulers = this.schedulers;
+        int n = schedulers.length;
+        NioCoServerSocket[] servers = new NioCoServerSocket[n];
+        boolean failed = true;
+        try {
+            for (int i = 0; i < n; ++i) {
+                NioCoServerSocket server = new NioCoServerSocket(schedulers[i]);
+                servers[i] = server;
+                server.setReusePort(true);
+                server.bind(endpoint, backlog);
+                if (i == 0 && endpoint instanceof InetSocketAddress
+                        && ((InetSocketAddress)endpoint).getPort() == 0) {
+                    // Bind the rest to the ephemeral port of the first
+                    endpoint = server.getLocalSocketAddress();
+                }
+            }
+            failed = false;
+            return servers;
+        } finally {
+            if (failed) {
+                for (NioCoServerSocket server : servers) {
+                    IoUtils.close(server);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (NioScheduler scheduler : this.schedulers) {
+            scheduler.shutdown();
+        }
+    }
+
+    /** Shutdown all schedulers of this group gracefully.
+     *
+     * @see NioScheduler#shutdownGracefully(long, long, TimeUnit)
+     * @return the future completed when all schedulers terminated
+     */
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout,
+                                                      TimeUnit unit) {
+        NioScheduler[] schedulers = this.schedulers;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[schedulers.length];
+        for (int i = 0; i < futures.length; ++i) {
+            futures[i] = schedulers[i].shutdownGracefully(quietPeriod, timeout, unit);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    public boolean isShutdown() {
+        for (NioScheduler scheduler : this.schedulers) {
+            if (!scheduler.isShutdown()) return false;
+        }
+        return true;
+    }
+
+    public boolean isTerminated() {
+        for (NioScheduler scheduler : this.schedulers) {
+            if (!scheduler.isTerminated()) return false;
+        }
+        return true;
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        for (Thread thread : this.threads) {
+            if (thread != null) thread.join();
+        }
+    }
+
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        for (Thread thread : this.threads) {
+            if (thread == null) continue;
+            long rem = deadline - System.currentTimeMillis();
+            if (rem <= 0) break;
+            thread.join(rem);
+        }
+
+        return isTerminated();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
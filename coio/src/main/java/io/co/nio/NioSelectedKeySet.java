@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * An array-backed selected key set that replaces the HashSet selected keys of the
+ * JDK selector, so that selecting adds a key by an array store instead of hashing
+ * and allocating a node, and processing the keys needs no iterator.
+ *
+ * <p>The selector only adds the selected keys into it, and the scheduler reads and
+ * resets it after each select. The JDK internal fields are replaced by reflection,
+ * and the selector keeps its own set if the replacement fails, e.g. the package
+ * "sun.nio.ch" isn't opened to this module in JDK 9+. It can be disabled by the
+ * system property "io.co.selector.optimize".
+ * </p>
+ *
+ * @author little-pan
+ * @since 2021-04-24
+ *
+ */
+final class NioSelectedKeySet extends AbstractSet<SelectionKey> {
+
+    static final boolean OPTIMIZE = Boolean.parseBoolean(
+            System.getProperty("io.co.selector.optimize", "true"));
+
+    SelectionKey[] keys;
+    int size;
+
+    NioSelectedKeySet() {
+        this.keys = new SelectionKey[1024];
+    }
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+
+        final int size = this.size;
+        if (size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, size << 1);
+        }
+        this.keys[size] = key;
+        this.size = size + 1;
+
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            int i;
+
+            @Override
+            public boolean hasNext() {
+                return this.i < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keys[this.i++];
+            }
+        };
+    }
+
+    /** Clear the keys from the start index for GC.
+     *
+     * @param start the start index
+     */
+    void reset(int start) {
+        Arrays.fill(this.keys, start, this.size, null);
+        this.size = 0;
+    }
+
+    /** Install an array-backed key set into the selector.
+     *
+     * @param selector the JDK selector
+     * @return the installed key set, or null if not optimized
+     */
+    static NioSelectedKeySet install(Selector selector) {
+        return install(selector, OPTIMIZE);
+    }
+
+    static NioSelectedKeySet install(Selector selector, boolean optimize) {
+        if (!optimize) {
+            return null;
+        }
+
+        try {
+            Class<?> implClass = Class.forName("sun.nio.ch.SelectorImpl", false,
+                    ClassLoader.getSystemClassLoader());
+            if (!implClass.isAssignableFrom(selector.getClass())) {
+                return null;
+            }
+
+            Field selectedKeys = implClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeys = implClass.getDeclaredField("publicSelectedKeys");
+            selectedKeys.setAccessible(true);
+            publicSelectedKeys.setAccessible(true);
+
+            NioSelectedKeySet keySet = new NioSelectedKeySet();
+            selectedKeys.set(selector, keySet);
+            publicSelectedKeys.set(selector, keySet);
+            debug("Optimized selected keys of %s", selector);
+            return keySet;
+        } catch (Exception | LinkageError e) {
+            // e.g. InaccessibleObjectException in JDK 9+ without "--add-opens"
+            debug("Can't optimize selected keys of %s: %s", selector, e);
+            return null;
+        }
+    }
+
+}
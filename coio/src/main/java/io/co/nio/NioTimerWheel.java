@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel of the scheduler timers. Adding or removing a timer
+ * is O(1), and expiring only touches the buckets of the elapsed ticks, so that the
+ * loop cost scales with the fired timers instead of the armed ones.
+ *
+ * <p>A timer is put into the level whose span covers its remaining ticks, at the
+ * bucket indexed by the tick bits of that level. When the current tick crosses the
+ * span boundary of a level, the bucket of that level is cascaded: its timers are
+ * re-added into the lower levels. Timers due already are kept in the due list, and
+ * run in the next expiring.
+ * </p>
+ *
+ * @author little-pan
+ * @since 2021-04-23
+ *
+ */
+class NioTimerWheel {
+
+    static final int WHEEL_BITS = 8;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    static final int LEVELS = 4;
+    static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    static final int DUE = LEVELS * WHEEL_SIZE;
+    static final int RUNNING = DUE + 1;
+    static final int WORDS = WHEEL_SIZE >>> 6;
+
+    private final NioCoTimer[] heads;
+    private final NioCoTimer[] tails;
+    private final long[] occupied;
+    private final long origin;
+    private final long tickTime;
+    private long currentTick;
+    private int size;
+
+    /** Create a timing wheel.
+     *
+     * @param origin the time of the tick 0
+     * @param tickTime the time of each tick, in the time unit of the timer runat
+     */
+    NioTimerWheel(long origin, long tickTime) {
+        if (tickTime <= 0) {
+            throw new IllegalArgumentException("tickTime " + tickTime);
+        }
+
+        this.heads = new NioCoTimer[RUNNING + 1];
+        this.tails = new NioCoTimer[RUNNING + 1];
+        this.occupied = new long[LEVELS * WORDS];
+        this.origin = origin;
+        this.tickTime = tickTime;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    void add(NioCoTimer timer) throws IllegalStateException {
+        if (timer.bucket != -1) {
+            throw new IllegalStateException("Timer scheduled yet: " + timer);
+        }
+
+        // Round up: never fire before the runat
+        long time = timer.runat() - this.origin;
+        long tick = time <= 0? 0: (time + this.tickTime - 1) / this.tickTime;
+        timer.tick = tick;
+        link(timer, bucketOf(tick));
+        this.size++;
+    }
+
+    boolean remove(NioCoTimer timer) {
+        if (timer.bucket == -1) {
+            return false;
+        }
+
+        unlink(timer);
+        this.size--;
+        return true;
+    }
+
+    /** Expire the timers due at the time, and run them by the runner. Timers added
+     * by the runner are not run in this turn even if they are due.
+     *
+     * @param now the current time
+     * @param runner the timer runner
+     * @return the number of the expired timers
+     */
+    int expire(long now, Consumer<NioCoTimer> runner) {
+        final long nowTick = Math.max(0, (now - this.origin) / this.tickTime);
+
+        while (this.currentTick < nowTick) {
+            if (this.size == 0) {
+                this.currentTick = nowTick;
+                break;
+            }
+            long tick = this.currentTick + 1;
+            if ((tick & WHEEL_MASK) != 0) {
+                // Skip the empty buckets till the next cascade boundary
+                long limit = Math.min(nowTick, tick | WHEEL_MASK);
+                int d = distance(0, (int)(tick & WHEEL_MASK));
+                if (d == -1 || tick + d > limit) {
+                    this.currentTick = limit;
+                    continue;
+                }
+                tick += d;
+            }
+            this.currentTick = tick;
+            cascade(tick);
+            moveAll((int)(tick & WHEEL_MASK), DUE);
+        }
+
+        // Detach the due list so that timers added when running wait the next turn
+        moveAll(DUE, RUNNING);
+        final NioCoTimer[] heads = this.heads;
+        int n = 0;
+        for (NioCoTimer timer; (timer = heads[RUNNING]) != null; ++n) {
+            remove(timer);
+            runner.accept(timer);
+        }
+
+        return n;
+    }
+
+    /** Returns the time from now to the next tick that has work to do.
+     *
+     * @param now the current time
+     * @return 0 if some timers due, Long.MAX_VALUE if no timer, otherwise the time
+     *  to the next expiring
+     */
+    long nextTimeout(long now) {
+        if (this.size == 0) {
+            return Long.MAX_VALUE;
+        }
+        if (this.heads[DUE] != null) {
+            return 0;
+        }
+
+        long next = Long.MAX_VALUE;
+        final long current = this.currentTick;
+        for (int level = 0; level < LEVELS; ++level) {
+            int shift = level * WHEEL_BITS;
+            long base = (current >>> shift) + 1;
+            int d = distance(level, (int)(base & WHEEL_MASK));
+            if (d != -1) {
+                next = Math.min(next, (base + d) << shift);
+            }
+        }
+        if (next == Long.MAX_VALUE) {
+            return next;
+        }
+
+        long time = this.origin + next * this.tickTime;
+        return Math.max(0, time - now);
+    }
+
+    private int bucketOf(long tick) {
+        final long current = this.currentTick;
+        long delta = tick - current;
+        if (delta <= 0) {
+            return DUE;
+        }
+        if (delta >= MAX_TICKS) {
+            // Park at the farthest bucket and re-add when cascaded
+            tick = current + MAX_TICKS - 1;
+            delta = MAX_TICKS - 1;
+        }
+
+        int level = 0;
+        while (delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            ++level;
+        }
+        int index = (int)((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        return level * WHEEL_SIZE + index;
+    }
+
+    private void cascade(long tick) {
+        for (int level = LEVELS - 1; level > 0; --level) {
+            int shift = level * WHEEL_BITS;
+            if ((tick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            int bucket = level * WHEEL_SIZE + (int)((tick >>> shift) & WHEEL_MASK);
+            for (NioCoTimer timer; (timer = this.heads[bucket]) != null; ) {
+                unlink(timer);
+                link(timer, bucketOf(timer.tick));
+            }
+        }
+    }
+
+    private void moveAll(int from, int to) {
+        for (NioCoTimer timer; (timer = this.heads[from]) != null; ) {
+            unlink(timer);
+            link(timer, to);
+        }
+    }
+
+    private void link(NioCoTimer timer, int bucket) {
+        final NioCoTimer tail = this.tails[bucket];
+        timer.bucket = bucket;
+        timer.prev = tail;
+        timer.next = null;
+        if (tail == null) {
+            this.heads[bucket] = timer;
+            if (bucket < DUE) {
+                this.occupied[bucket >>> 6] |= 1L << (bucket & 63);
+            }
+        } else {
+            tail.next = timer;
+        }
+        this.tails[bucket] = timer;
+    }
+
+    private void unlink(NioCoTimer timer) {
+        final int bucket = timer.bucket;
+        final NioCoTimer prev = timer.prev, next = timer.next;
+        if (prev == null) {
+            this.heads[bucket] = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            this.tails[bucket] = prev;
+        } else {
+            next.prev = prev;
+        }
+        if (this.heads[bucket] == null && bucket < DUE) {
+            this.occupied[bucket >>> 6] &= ~(1L << (bucket & 63));
+        }
+        timer.prev = timer.next = null;
+        timer.bucket = -1;
+    }
+
+    /** Find the next occupied bucket in the level, from the start index and wrapping
+     * around the wheel.
+     *
+     * @return the distance from the start index, or -1 if the level is empty
+     */
+    private int distance(int level, int start) {
+        final long[] occupied = this.occupied;
+        final int base = level * WORDS;
+        int pos = start;
+
+        for (int n = 0; n < WHEEL_SIZE; ) {
+            int word = pos >>> 6;
+            long bits = occupied[base + word] & (-1L << (pos & 63));
+            if (bits != 0) {
+                int found = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return n + (found - pos);
+            }
+            int step = 64 - (pos & 63);
+            n += step;
+            pos = (pos + step) & WHEEL_MASK;
+        }
+
+        return -1;
+    }
+
+}
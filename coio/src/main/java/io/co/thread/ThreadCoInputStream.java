@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.thread;
+
+import com.offbynull.coroutines.user.Continuation;
+import io.co.CoInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+/**
+ * The blocking input stream of the thread socket, it blocks the coroutine thread
+ * when no data to read.
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ThreadCoInputStream extends CoInputStream {
+
+    private final Socket socket;
+    private InputStream in;
+    private byte[] buffer;
+    private int pos, limit;
+
+    public ThreadCoInputStream(Socket socket) {
+        this(socket, BUFFER_SIZE);
+    }
+
+    public ThreadCoInputStream(Socket socket, int bufferSize) {
+        this.socket = socket;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public int available(Continuation co) throws IOException {
+        return this.limit - this.pos + input().available();
+    }
+
+    @Override
+    public int read(Continuation co) throws IOException {
+        if (this.pos == this.limit && fill() == -1) {
+            return -1;
+        }
+
+        return this.buffer[this.pos++] & 0xff;
+    }
+
+    @Override
+    public int read(Continuation co, byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        int n = this.limit - this.pos;
+        if (n == 0) {
+            if (len >= buffer().length) {
+                // Read directly into the big array
+                return input().read(b, off, len);
+            }
+            if (fill() == -1) {
+                return -1;
+            }
+            n = this.limit - this.pos;
+        }
+        n = Math.min(n, len);
+        System.arraycopy(this.buffer, this.pos, b, off, n);
+        this.pos += n;
+
+        return n;
+    }
+
+    private int fill() throws IOException {
+        byte[] buf = buffer();
+        int n = input().read(buf, 0, buf.length);
+        this.pos = 0;
+        this.limit = Math.max(n, 0);
+        return n;
+    }
+
+    private byte[] buffer() throws IOException {
+        byte[] buf = this.buffer;
+        if (buf == null) {
+            throw new IOException("Stream closed");
+        }
+        return buf;
+    }
+
+    private InputStream input() throws IOException {
+        InputStream in = this.in;
+        if (in == null) {
+            // Available after connected
+            this.in = in = this.socket.getInputStream();
+        }
+        return in;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.socket.shutdownInput();
+        } catch (final IOException e) {
+            // ignore
+        }
+        this.buffer = null;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.thread;
+
+import com.offbynull.coroutines.user.Continuation;
+import io.co.CoOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * The blocking output stream of the thread socket, it blocks the coroutine thread
+ * when the socket send buffer is full.
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ThreadCoOutputStream extends CoOutputStream {
+
+    private final Socket socket;
+    private OutputStream out;
+    private byte[] buffer;
+    private int count;
+
+    public ThreadCoOutputStream(Socket socket) {
+        this(socket, BUFFER_SIZE);
+    }
+
+    public ThreadCoOutputStream(Socket socket, int bufferSize) {
+        this.socket = socket;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(Continuation co, int b) throws IOException {
+        byte[] buf = buffer();
+        if (this.count == buf.length) {
+            flushBuffer();
+        }
+        buf[this.count++] = (byte)b;
+    }
+
+    @Override
+    public void write(Continuation co, byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        byte[] buf = buffer();
+        if (len >= buf.length) {
+            // Write the big array directly
+            flushBuffer();
+            output().write(b, off, len);
+            return;
+        }
+        if (len > buf.length - this.count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buf, this.count, len);
+        this.count += len;
+    }
+
+    @Override
+    public void flush(Continuation co) throws IOException {
+        flushBuffer();
+        output().flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            output().write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    private byte[] buffer() throws IOException {
+        byte[] buf = this.buffer;
+        if (buf == null) {
+            throw new IOException("Stream closed");
+        }
+        return buf;
+    }
+
+    private OutputStream output() throws IOException {
+        OutputStream out = this.out;
+        if (out == null) {
+            // Available after connected
+            this.out = out = this.socket.getOutputStream();
+        }
+        return out;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.socket.shutdownOutput();
+        } catch (final IOException e) {
+            // ignore
+        }
+        this.buffer = null;
+    }
+
+}
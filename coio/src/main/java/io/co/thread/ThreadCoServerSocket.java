@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.thread;
+
+import com.offbynull.coroutines.user.Continuation;
+import io.co.CoServerSocket;
+import io.co.Scheduler;
+import io.co.util.IoUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * The blocking server socket of the thread scheduler, the accept blocks the
+ * coroutine thread.
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ThreadCoServerSocket extends CoServerSocket implements ThreadCoChannel {
+
+    protected static String NAME_PREFIX = "ThreadCoServer";
+
+    protected String name = NAME_PREFIX;
+    private int backlog;
+    private final ServerSocket serverSocket;
+    private volatile boolean bound;
+
+    protected final ThreadScheduler scheduler;
+    protected final boolean localScheduler;
+    private volatile int id = -1;
+
+    public ThreadCoServerSocket() throws IOException {
+        this(new ThreadScheduler(), true);
+    }
+
+    public ThreadCoServerSocket(Scheduler scheduler) throws IOException {
+        this(scheduler, false);
+    }
+
+    protected ThreadCoServerSocket(Scheduler scheduler, boolean localScheduler)
+            throws IOException {
+        this.scheduler = (ThreadScheduler)scheduler;
+        this.localScheduler = localScheduler;
+        this.serverSocket = new ServerSocket();
+    }
+
+    @Override
+    public int id() {
+        return this.id;
+    }
+
+    @Override
+    public void id(int id) {
+        this.id = id;
+    }
+
+    @Override
+    public int getBacklog() {
+        return this.backlog;
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.bound;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.serverSocket.isClosed();
+    }
+
+    @Override
+    public ThreadScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    @Override
+    public ThreadCoSocket accept(Continuation co) throws IOException, IllegalStateException {
+        if (!isBound()) {
+            throw new IOException("The socket is unbound");
+        }
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+
+        Socket s = this.serverSocket.accept();
+        ThreadCoSocket socket = new ThreadCoSocket(s, this.scheduler);
+        boolean failed = true;
+        try {
+            socket.accepted();
+            failed = false;
+            return socket;
+        } finally {
+            if (failed) {
+                IoUtils.close(socket);
+            }
+        }
+    }
+
+    @Override
+    public void bind(SocketAddress endpoint, int backlog) throws IOException {
+        if (isBound()) {
+            throw new IOException("The socket is already bound");
+        }
+
+        boolean failed = true;
+        try {
+            ServerSocket ss = this.serverSocket;
+            ss.setReuseAddress(true);
+            ss.bind(endpoint, backlog);
+            this.backlog = backlog;
+            this.name = NAME_PREFIX + "-" + ss.getLocalPort();
+            this.scheduler.register(this);
+            this.bound = true;
+            failed = false;
+        } finally {
+            if (failed) {
+                IoUtils.close(this.serverSocket);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        debug("%s close..", this);
+        try {
+            IoUtils.close(this.serverSocket);
+            super.close();
+        } finally {
+            if (this.localScheduler) {
+                this.scheduler.shutdown();
+            }
+        }
+        debug("%s closed", this);
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        if (!isBound()) {
+            return null;
+        }
+        return this.serverSocket.getInetAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        if (!isBound()) {
+            return -1;
+        }
+        return this.serverSocket.getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        if (!isBound()) {
+            return null;
+        }
+        return this.serverSocket.getLocalSocketAddress();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.thread;
+
+import com.offbynull.coroutines.user.Continuation;
+import io.co.*;
+import io.co.util.IoUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The blocking socket of the thread scheduler, the IO methods block the coroutine
+ * thread instead of suspending the coroutine.
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ThreadCoSocket extends CoSocket implements ThreadCoChannel {
+
+    private final ThreadScheduler scheduler;
+    private final boolean localScheduler;
+
+    private final Socket socket;
+    private final CoInputStream in;
+    private final CoOutputStream out;
+    private volatile int id = -1;
+
+    public ThreadCoSocket() {
+        this(new ThreadScheduler(), true);
+    }
+
+    public ThreadCoSocket(Scheduler scheduler) {
+        this(scheduler, false);
+    }
+
+    protected ThreadCoSocket(Scheduler scheduler, boolean localScheduler) {
+        this(new Socket(), scheduler, localScheduler);
+    }
+
+    /** Create a socket of the accepted or connected socket.
+     *
+     * @param socket the connected socket
+     * @param scheduler the thread scheduler
+     */
+    public ThreadCoSocket(Socket socket, Scheduler scheduler) {
+        this(socket, scheduler, false);
+    }
+
+    private ThreadCoSocket(Socket socket, Scheduler scheduler, boolean localScheduler) {
+        this.socket = socket;
+        this.scheduler = (ThreadScheduler)scheduler;
+        this.localScheduler = localScheduler;
+        this.in = new ThreadCoInputStream(socket);
+        this.out = new ThreadCoOutputStream(socket);
+    }
+
+    @Override
+    public int id() {
+        return this.id;
+    }
+
+    @Override
+    public void id(int id) {
+        this.id = id;
+    }
+
+    public Socket socket() {
+        return this.socket;
+    }
+
+    @Override
+    public ThreadScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    @Override
+    public void setSoTimeout(int soTimeout) throws IllegalArgumentException {
+        super.setSoTimeout(soTimeout);
+        try {
+            this.socket.setSoTimeout(soTimeout);
+        } catch (SocketException e) {
+            // Closed
+        }
+    }
+
+    void accepted() throws IOException {
+        this.scheduler.register(this);
+        this.socket.setTcpNoDelay(true);
+        this.socket.setSoTimeout(getSoTimeout());
+    }
+
+    @Override
+    public void connect(Continuation co, SocketAddress endpoint, int timeout)
+            throws IOException {
+        boolean failed = true;
+        try {
+            this.scheduler.register(this);
+            Socket socket = this.socket;
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(getSoTimeout());
+            socket.connect(endpoint, timeout);
+            failed = false;
+        } finally {
+            if (failed) {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return this.socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return this.socket.getInetAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.socket.getPort();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return this.socket.getLocalAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return this.socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.socket.getLocalPort();
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.socket.isBound();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !this.socket.isClosed();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.socket.isConnected();
+    }
+
+    @Override
+    public int available(Continuation co) throws IOException {
+        return this.in.available(co);
+    }
+
+    @Override
+    public int read(Continuation co) throws IOException {
+        return this.in.read(co);
+    }
+
+    @Override
+    public int read(Continuation co, byte[] b) throws IOException {
+        return this.in.read(co, b);
+    }
+
+    @Override
+    public int read(Continuation co, byte[] b, int off, int len) throws IOException {
+        return this.in.read(co, b, off, len);
+    }
+
+    @Override
+    public int readFully(Continuation co, byte[] b) throws IOException {
+        return this.in.readFully(co, b);
+    }
+
+    @Override
+    public int readFully(Continuation co, byte[] b, int off, int len)
+            throws IOException {
+        return this.in.readFully(co, b, off, len);
+    }
+
+    @Override
+    public int read(Continuation co, ByteBuffer dst) throws IOException {
+        return this.in.read(co, dst);
+    }
+
+    @Override
+    public int readFully(Continuation co, ByteBuffer dst) throws IOException {
+        return this.in.readFully(co, dst);
+    }
+
+    @Override
+    public long read(Continuation co, ByteBuffer[] dsts) throws IOException {
+        return this.in.read(co, dsts);
+    }
+
+    @Override
+    public long skip(Continuation co, long n) throws IOException {
+        return this.in.skip(co, n);
+    }
+
+    @Override
+    public CoInputStream getInputStream() {
+        return this.in;
+    }
+
+    @Override
+    public void write(Continuation co, int b) throws IOException {
+        this.out.write(co, b);
+    }
+
+    @Override
+    public void write(Continuation co, byte[] b) throws IOException {
+        this.out.write(co, b);
+    }
+
+    @Override
+    public void write(Continuation co, byte[] b, int off, int len) throws IOException {
+        this.out.write(co, b, off, len);
+    }
+
+    @Override
+    public void write(Continuation co, ByteBuffer src) throws IOException {
+        this.out.write(co, src);
+    }
+
+    @Override
+    public void write(Continuation co, ByteBuffer[] srcs) throws IOException {
+        this.out.write(co, srcs);
+    }
+
+    @Override
+    public long transferFrom(Continuation co, FileChannel src, long position, long count)
+            throws IOException, IllegalArgumentException {
+        return this.out.transferFrom(co, src, position, count);
+    }
+
+    @Override
+    public void flush(Continuation co) throws IOException {
+        this.out.flush(co);
+    }
+
+    @Override
+    public CoOutputStream getOutputStream() {
+        return this.out;
+    }
+
+    @Override
+    public void close() {
+        try {
+            IoUtils.close(this.in);
+            IoUtils.close(this.out);
+            IoUtils.close(this.socket);
+            super.close();
+        } finally {
+            if (this.localScheduler) {
+                this.scheduler.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        String clazz =  this.getClass().getSimpleName();
+        String format= "%s[id=%d#%d, local=%s, remote=%s]";
+
+        return String.format(format, clazz, this.id, hashCode(),
+                getLocalSocketAddress(), getRemoteSocketAddress());
+    }
+
+}
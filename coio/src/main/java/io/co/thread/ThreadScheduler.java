@@ -0,0 +1,556 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.thread;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import io.co.*;
+import io.co.util.ExceptionUtils;
+import io.co.util.IoUtils;
+import io.co.util.RuntimeUtils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * A scheduler that runs each forked coroutine in its own thread, a virtual thread
+ * if the JDK supports, and the sockets of this scheduler are blocking. The methods
+ * that take a continuation block the coroutine thread instead of suspending, so
+ * that the same coroutine code runs in this scheduler or a NioScheduler.
+ *
+ * <p>The timers run in a timer thread of this scheduler, and the dispatched tasks
+ * each run in a new thread. Use the platform threads instead of the virtual ones by
+ * setting the system property "io.co.thread.virtual" to false.
+ * </p>
+ *
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ThreadScheduler implements Scheduler {
+
+    static final boolean VIRTUAL = Boolean.parseBoolean(
+            System.getProperty("io.co.thread.virtual", "true"));
+    // The termination check interval in shutdown
+    static final long SHUTDOWN_CHECK_MILLIS = 10L;
+
+    private static final ThreadLocal<ThreadScheduler> CURRENT = new ThreadLocal<>();
+
+    protected String name;
+    protected boolean daemon;
+
+    private volatile boolean shutdown;
+    private volatile boolean terminated;
+    private final CompletableFuture<Void> terminationFuture = new CompletableFuture<>();
+    // Graceful shutdown: terminate after the quiet period, or force-close at deadline
+    private volatile boolean graceful;
+    private volatile long quietNanos;
+    private volatile long shutdownStart;
+    private volatile long shutdownDeadline;
+    // The last fork, task or channel time
+    private volatile long lastActive;
+    private final AtomicReference<Thread> threadRef;
+
+    private final Set<ThreadCoChannel> channels;
+    private final int maxConnections;
+    private final AtomicInteger nextId;
+
+    private final ThreadFactory threadFactory;
+    private final boolean virtual;
+    private final ScheduledThreadPoolExecutor timer;
+
+    public ThreadScheduler() {
+        this(NAME, MAX_CONNECTIONS);
+    }
+
+    public ThreadScheduler(String name) {
+        this(name, MAX_CONNECTIONS);
+    }
+
+    public ThreadScheduler(String name, int maxConnections) {
+        this(name, maxConnections, null);
+    }
+
+    /** Create a thread scheduler.
+     *
+     * @param name the scheduler name, also the name prefix of its threads
+     * @param maxConnections the max open channel count
+     * @param threadFactory the factory of the coroutine threads, null for the
+     *  virtual thread factory if available, otherwise the platform daemon threads
+     */
+    public ThreadScheduler(String name, int maxConnections, ThreadFactory threadFactory) {
+        if (maxConnections < 0) {
+            throw new IllegalArgumentException("maxConnections " + maxConnections);
+        }
+
+        this.name = name;
+        this.maxConnections = maxConnections;
+        this.threadRef = new AtomicReference<>();
+        this.channels = ConcurrentHashMap.newKeySet();
+        this.nextId = new AtomicInteger();
+
+        ThreadFactory factory = threadFactory;
+        if (factory == null && VIRTUAL) {
+            factory = RuntimeUtils.virtualThreadFactory(name + "-");
+        }
+        this.virtual = threadFactory == null && factory != null;
+        if (factory == null) {
+            AtomicInteger counter = new AtomicInteger();
+            factory = r -> {
+                Thread t = new Thread(r, name + "-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+        this.threadFactory = factory;
+
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(wrap(r), name + "-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        debug("%s - ThreadScheduler(): virtual = %s", name, this.virtual);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public boolean isDaemon() {
+        return this.daemon;
+    }
+
+    /** Returns true if the coroutines run in the virtual threads.
+     *
+     * @return true if virtual threads used
+     */
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return this.threadRef.get() != null;
+    }
+
+    @Override
+    public CoContext fork(Coroutine c) {
+        return fork(c, null);
+    }
+
+    @Override
+    public CoContext fork(Coroutine c, AutoCloseable cleaner) {
+        return fork(c, cleaner, CoContext.PRIORITY_NORMAL);
+    }
+
+    @Override
+    public CoContext fork(Coroutine c, AutoCloseable cleaner, int priority)
+            throws IllegalArgumentException {
+        CoroutineRunner runner = new CoroutineRunner(c);
+        CoContext context = new CoContext(runner, this, cleaner);
+        context.setPriority(priority);
+        runner.setContext(context);
+        start(context::start);
+
+        return context;
+    }
+
+    @Override
+    public CoTimer schedule(Runnable task, long delay) throws NullPointerException {
+        return schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CoTimer schedule(Runnable task, long delay, long period)
+            throws NullPointerException {
+        return scheduleWithFixedDelay(task, delay, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CoTimer schedule(Runnable task, long delay, TimeUnit unit)
+            throws NullPointerException {
+        if (task == null) throw new NullPointerException();
+        return new ThreadCoTimer(this.timer.schedule(() -> runTask(task), delay, unit));
+    }
+
+    @Override
+    public CoTimer scheduleAtFixedRate(Runnable task, long delay, long period,
+                                       TimeUnit unit) throws NullPointerException {
+        if (task == null) throw new NullPointerException();
+        Runnable r = () -> runTask(task);
+        return new ThreadCoTimer(this.timer.scheduleAtFixedRate(r, delay, period, unit));
+    }
+
+    @Override
+    public CoTimer scheduleWithFixedDelay(Runnable task, long delay, long period,
+                                          TimeUnit unit) throws NullPointerException {
+        if (task == null) throw new NullPointerException();
+        Runnable r = () -> runTask(task);
+        return new ThreadCoTimer(this.timer.scheduleWithFixedDelay(r, delay, period, unit));
+    }
+
+    @Override
+    public Future<?> execute(Runnable task) throws IllegalStateException {
+        return execute(task, null);
+    }
+
+    @Override
+    public <V> Future<V> execute(Runnable task, V value) throws IllegalStateException {
+        FutureTask<V> future = new FutureTask<>(task, value);
+        start(future);
+        return future;
+    }
+
+    /** Dispatch the task to a new thread of this scheduler, even if the current
+     * thread is a scheduler thread, since the task may block.
+     * @threadsafe
+     *
+     * @param task the dispatched task
+     * @throws IllegalStateException if this scheduler terminated
+     */
+    @Override
+    public void dispatch(Runnable task) throws IllegalStateException {
+        if (task == null) throw new NullPointerException();
+        start(() -> runTask(task));
+    }
+
+    @Override
+    public void compute(Continuation co, Runnable task)
+            throws IllegalStateException, ExecutionException {
+        compute(co, () -> { task.run(); return null; });
+    }
+
+    /** Compute the task in the current coroutine thread, it's a blocking call.
+     */
+    @Override
+    public <V> V compute(Continuation co, Callable<V> task)
+            throws IllegalStateException, ExecutionException {
+        ensureInScheduler();
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    @Override
+    public void compute(Continuation co, Runnable task, Executor executor)
+            throws IllegalStateException, ExecutionException {
+        compute(co, () -> { task.run(); return null; }, executor);
+    }
+
+    @Override
+    public <V> V compute(Continuation co, Callable<V> task, Executor executor)
+            throws IllegalStateException, ExecutionException {
+        ensureInScheduler();
+        CompletableFuture<V> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw ExceptionUtils.runtime(e);
+            }
+        }, executor);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void await(Continuation co, long millis) {
+        if(millis < 0L) {
+            throw new IllegalArgumentException("millis " + millis);
+        }
+
+        await(co, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void await(Continuation co, long time, TimeUnit unit) {
+        if(time < 0L) {
+            throw new IllegalArgumentException("time " + time);
+        }
+
+        try {
+            unit.sleep(time);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void attachCurrentThread() throws IllegalStateException {
+        AtomicReference<Thread> ref = this.threadRef;
+        Thread thread = Thread.currentThread();
+        boolean result = ref.compareAndSet(null, thread);
+
+        if (result) this.daemon = thread.isDaemon();
+        else result = (ref.get() == thread);
+
+        if (!result) {
+            String error = this.name + " attached another thread yet";
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /** Returns true if the current thread is a coroutine, task or timer thread of
+     * this scheduler, or the attached thread.
+     *
+     * @return true if the current thread in this scheduler
+     */
+    @Override
+    public boolean inScheduler() {
+        return CURRENT.get() == this || this.threadRef.get() == Thread.currentThread();
+    }
+
+    void register(ThreadCoChannel channel) throws IOException {
+        if (this.channels.size() >= this.maxConnections) {
+            throw new IOException("Too many connections");
+        }
+
+        channel.id(this.nextId.getAndIncrement() & Integer.MAX_VALUE);
+        this.channels.add(channel);
+        this.lastActive = System.nanoTime();
+    }
+
+    @Override
+    public void close(CoChannel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        if (this.channels.remove(channel)) {
+            this.lastActive = System.nanoTime();
+            debug("Close: %s", channel);
+        }
+    }
+
+    /** Returns the number of the open channels registered in this scheduler.
+     * @threadsafe
+     *
+     * @return the registered channel count
+     */
+    public int getConnections() {
+        return this.channels.size();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.terminated;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        try {
+            this.terminationFuture.get();
+        } catch (ExecutionException e) {
+            // Terminated
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        try {
+            this.terminationFuture.get(millis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // Check state
+        }
+
+        return isTerminated();
+    }
+
+    /** Wait in the current thread until this scheduler terminated, the coroutines
+     * run in their own threads.
+     */
+    @Override
+    public void run() {
+        attachCurrentThread();
+
+        if (this.isTerminated()) {
+            String error = this.name + " terminated";
+            throw new IllegalStateException(error);
+        }
+
+        try {
+            awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (this.shutdown || this.terminated) {
+            return;
+        }
+
+        this.shutdown = true;
+        // Check the termination periodically in the timer thread
+        this.timer.scheduleWithFixedDelay(this::tryShutdown, 0L, SHUTDOWN_CHECK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdownGracefully(long quietPeriod, long timeout,
+                                                      TimeUnit unit)
+            throws IllegalArgumentException {
+        if (quietPeriod < 0L || timeout < quietPeriod) {
+            String error = "quietPeriod " + quietPeriod + ", timeout " + timeout;
+            throw new IllegalArgumentException(error);
+        }
+
+        synchronized (this) {
+            if (!this.graceful && !this.terminated) {
+                long now = System.nanoTime();
+                this.quietNanos = unit.toNanos(quietPeriod);
+                this.shutdownStart = now;
+                this.shutdownDeadline = now + unit.toNanos(timeout);
+                this.graceful = true;
+            }
+            shutdown();
+        }
+
+        return this.terminationFuture;
+    }
+
+    @Override
+    public CompletableFuture<Void> terminationFuture() {
+        return this.terminationFuture;
+    }
+
+    /** Try to terminate this scheduler in the timer thread if shutdown: close the
+     * server sockets to stop accepting, then terminate when the channels closed, and
+     * no fork, task or channel activity in the quiet period if graceful. The graceful
+     * shutdown force-closes the rest channels at the deadline, that unblocks their
+     * coroutine threads.
+     */
+    private void tryShutdown() {
+        if (this.terminated) {
+            return;
+        }
+
+        final Set<ThreadCoChannel> channels = this.channels;
+        for (ThreadCoChannel ch : channels) {
+            if (ch instanceof CoServerSocket) {
+                IoUtils.close(ch);
+            }
+        }
+
+        final long now = System.nanoTime();
+        final boolean graceful = this.graceful;
+        final boolean timeout = graceful && now - this.shutdownDeadline >= 0L;
+        if (!channels.isEmpty()) {
+            if (!timeout) {
+                return;
+            }
+            debug("tryShutdown(): force close %s channels", channels.size());
+            for (ThreadCoChannel ch : channels) {
+                IoUtils.close(ch);
+            }
+            channels.clear();
+        }
+
+        if (graceful && !timeout) {
+            long last = Math.max(this.lastActive, this.shutdownStart);
+            if (now - last < this.quietNanos) {
+                return;
+            }
+        }
+
+        terminate();
+    }
+
+    private void terminate() {
+        this.terminated = true;
+        this.timer.shutdown();
+        this.terminationFuture.complete(null);
+        debug("terminated");
+    }
+
+    private void start(Runnable task) throws IllegalStateException {
+        if (this.terminated) {
+            String error = this.name + " terminated";
+            throw new IllegalStateException(error);
+        }
+
+        this.lastActive = System.nanoTime();
+        this.threadFactory.newThread(wrap(task)).start();
+    }
+
+    private Runnable wrap(Runnable task) {
+        return () -> {
+            CURRENT.set(this);
+            try {
+                task.run();
+            } finally {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            error("Task failed: " + task, e);
+        }
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Scheduler getScheduler() {
+        return this;
+    }
+
+    static class ThreadCoTimer implements CoTimer {
+
+        final Future<?> future;
+
+        ThreadCoTimer(Future<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return this.future.isCancelled();
+        }
+
+        @Override
+        public void cancel() {
+            this.future.cancel(false);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free array queue for multiple producers and a single consumer.
+ * Producers claim a slot by CAS on the producer index, then publish the element
+ * into the slot; the consumer owns the consumer index, and treats an empty slot
+ * below the producer index as a claimed but unpublished one.
+ *
+ * @author little-pan
+ * @since 2021-04-21
+ *
+ */
+public class MpscArrayQueue<E> {
+
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong producerIndex;
+    private final AtomicLong consumerIndex;
+
+    /** Create a queue that has the capacity rounded up to the next power of 2.
+     *
+     * @param capacity the minimum capacity
+     * @throws IllegalArgumentException if capacity less than 1 or too big
+     */
+    public MpscArrayQueue(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+
+        int size = 1 << (32 - Integer.numberOfLeadingZeros(capacity - 1));
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.capacity = size;
+        this.mask = size - 1;
+        this.producerIndex = new AtomicLong();
+        this.consumerIndex = new AtomicLong();
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /** Offer the element into the tail of this queue.
+     * @threadsafe
+     *
+     * @param e the element
+     * @return false if this queue is full, otherwise true
+     * @throws NullPointerException if the element is null
+     */
+    public boolean offer(E e) throws NullPointerException {
+        if (e == null) throw new NullPointerException();
+
+        final AtomicLong producerIndex = this.producerIndex;
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - this.consumerIndex.get() >= this.capacity) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        this.buffer.lazySet((int)index & this.mask, e);
+
+        return true;
+    }
+
+    /** Poll the head element of this queue, only called by the consumer.
+     *
+     * @return the head element, or null if this queue is empty
+     */
+    public E poll() {
+        final long index = this.consumerIndex.get();
+        final int offset = (int)index & this.mask;
+        final AtomicReferenceArray<E> buffer = this.buffer;
+
+        E e = buffer.get(offset);
+        if (e == null) {
+            if (index == this.producerIndex.get()) {
+                return null;
+            }
+            // The slot claimed but not published yet
+            do {
+                e = buffer.get(offset);
+            } while (e == null);
+        }
+        buffer.lazySet(offset, null);
+        this.consumerIndex.lazySet(index + 1);
+
+        return e;
+    }
+
+    /** Drain the published elements in batch, only called by the consumer. It stops
+     * at the first unpublished slot instead of waiting for the producer.
+     *
+     * @param consumer the element consumer
+     * @param limit the max number of the drained elements
+     * @return the number of the drained elements
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        final AtomicReferenceArray<E> buffer = this.buffer;
+        final AtomicLong consumerIndex = this.consumerIndex;
+        int i = 0;
+
+        for (; i < limit; ++i) {
+            final long index = consumerIndex.get();
+            final int offset = (int)index & this.mask;
+            final E e = buffer.get(offset);
+            if (e == null) {
+                break;
+            }
+            buffer.lazySet(offset, null);
+            consumerIndex.lazySet(index + 1);
+            consumer.accept(e);
+        }
+
+        return i;
+    }
+
+    /** Returns the approximate element count of this queue.
+     * @threadsafe
+     *
+     * @return the approximate size
+     */
+    public int size() {
+        while (true) {
+            final long before = this.consumerIndex.get();
+            final long pIndex = this.producerIndex.get();
+            final long after = this.consumerIndex.get();
+            if (before == after) {
+                return (int)(pIndex - after);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.consumerIndex.get() == this.producerIndex.get();
+    }
+
+}
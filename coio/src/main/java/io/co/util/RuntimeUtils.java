@@ -17,10 +17,18 @@
 
 package io.co.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadFactory;
+
 public final class RuntimeUtils {
 
     static final Runtime RT = Runtime.getRuntime();
     static final String OS = System.getProperty("os.name").toLowerCase();
+    // Thread.onSpinWait() since JDK 9, null in JDK 8
+    static final MethodHandle ON_SPIN_WAIT = initOnSpinWait();
 
     private RuntimeUtils() {}
 
@@ -44,4 +52,91 @@ public final class RuntimeUtils {
         return OS.contains("windows");
     }
 
+    /** Returns the max direct memory of the JVM, i.e. the option
+     * -XX:MaxDirectMemorySize if set, otherwise the max heap size as the JDK default.
+     *
+     * @return the max direct memory in bytes
+     */
+    public static long maxDirectMemory() {
+        final String option = "-XX:MaxDirectMemorySize=";
+        long max = -1L;
+        try {
+            for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (arg.startsWith(option)) {
+                    // The last one wins as the JVM does
+                    max = parseSize(arg.substring(option.length()));
+                }
+            }
+        } catch (RuntimeException | LinkageError e) {
+            // ignore: no management
+        }
+        return max < 0L? RT.maxMemory(): max;
+    }
+
+    /** Parse the JVM option size, e.g. 512m.
+     *
+     * @param size the size that has an optional unit suffix k, m, g or t
+     * @return the size in bytes, or -1 if malformed
+     */
+    public static long parseSize(String size) {
+        if (size.isEmpty()) {
+            return -1L;
+        }
+        final int last = size.length() - 1;
+        final int shift;
+        switch (Character.toLowerCase(size.charAt(last))) {
+            case 'k': shift = 10; break;
+            case 'm': shift = 20; break;
+            case 'g': shift = 30; break;
+            case 't': shift = 40; break;
+            default: shift = 0;
+        }
+        try {
+            return Long.parseLong(shift == 0? size: size.substring(0, last)) << shift;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /** Hint the CPU that the caller is busy-waiting, e.g. the PAUSE instruction in
+     * x86, by Thread.onSpinWait() if available.
+     */
+    public static void onSpinWait() {
+        final MethodHandle onSpinWait = ON_SPIN_WAIT;
+        if (onSpinWait != null) {
+            try {
+                onSpinWait.invokeExact();
+            } catch (Throwable e) {
+                // ignore
+            }
+        }
+    }
+
+    /** Create a factory of the virtual threads by Thread.ofVirtual() if available,
+     * i.e. JDK 21, or an earlier JDK that enables the preview.
+     *
+     * @param prefix the thread name prefix, followed by the thread counter
+     * @return the virtual thread factory, or null if not available
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, prefix, 0L);
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static MethodHandle initOnSpinWait() {
+        try {
+            MethodType type = MethodType.methodType(void.class);
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
 }
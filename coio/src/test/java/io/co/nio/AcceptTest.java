@@ -21,6 +21,11 @@ import io.co.*;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -30,8 +35,10 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class AcceptTest extends TestCase {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         new AcceptTest().testAccept();
+        new AcceptTest().testHandOffFailure();
+        new AcceptTest().testHandOffPending();
     }
 
     public void testAccept() {
@@ -52,6 +59,89 @@ public class AcceptTest extends TestCase {
         }
     }
 
+    /** The connection that can't be handed off to a child scheduler is closed, and
+     * the acceptor keeps accepting.
+     */
+    public void testHandOffFailure() throws Exception {
+        int port = 9979;
+        NioScheduler acceptor = new NioScheduler("CoAcceptor");
+        acceptor.attachCurrentThread();
+        NioSchedulerGroup group = new NioSchedulerGroup("CoChild", 2);
+        NioScheduler down = group.get(0), child = group.get(1);
+        down.shutdown();
+
+        try (NioCoServerSocket server = new NioCoServerSocket(acceptor, group);
+             SocketChannel first = SocketChannel.open();
+             SocketChannel second = SocketChannel.open()) {
+            server.bind(port);
+            SelectionKey key = server.channel().keyFor(acceptor.selector);
+            first.connect(new InetSocketAddress("127.0.0.1", port));
+            acceptor.doAccept(key);
+            second.connect(new InetSocketAddress("127.0.0.1", port));
+            acceptor.doAccept(key);
+
+            assertFalse(server.isClosed());
+            assertEquals(-1, first.read(ByteBuffer.allocate(1)));
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (child.getConnections() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, child.getConnections());
+        } finally {
+            group.shutdown();
+            group.awaitTermination();
+        }
+    }
+
+    /** The socket being handed off counts in the least-connections choice, and the
+     * child doesn't terminate till the hand-off runs, which closes the socket if the
+     * child shutdown meanwhile.
+     */
+    public void testHandOffPending() throws Exception {
+        int port = 9984;
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        NioSchedulerGroup group = new NioSchedulerGroup("CoChild", 2, true);
+        NioScheduler child = new NioScheduler("CoHandOff");
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(address);
+            SocketChannel first = SocketChannel.open(address);
+            SocketChannel ch = server.accept();
+            ch.configureBlocking(false);
+            NioCoSocket socket = new NioCoSocket(ch, group.get(0));
+            NioScheduler.handOff(group.get(0), socket);
+            assertEquals(1, group.get(0).getLoad());
+            assertSame(group.get(1), group.next());
+            socket.close();
+            first.close();
+
+            SocketChannel second = SocketChannel.open(address);
+            ch = server.accept();
+            ch.configureBlocking(false);
+            socket = new NioCoSocket(ch, child);
+            NioScheduler.handOff(child, socket);
+            assertEquals(0, child.getConnections());
+            assertEquals(1, child.getLoad());
+            child.shutdown();
+            try {
+                NioScheduler.handOff(child, socket);
+                fail("Handed off after shutdown");
+            } catch (IllegalStateException e) {
+                // OK
+            }
+            assertEquals(1, child.getLoad());
+            child.run();
+            assertTrue(child.isTerminated());
+            assertEquals(0, child.getLoad());
+            assertFalse(ch.isOpen());
+            assertEquals(-1, second.read(ByteBuffer.allocate(1)));
+            second.close();
+        } finally {
+            group.shutdown();
+            group.awaitTermination();
+        }
+    }
+
     static void startServer(CoServerSocket server, int conn) {
         Scheduler scheduler = server.getScheduler();
         Coroutine serverCo = s -> {
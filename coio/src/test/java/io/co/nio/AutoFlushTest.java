@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.CoSocket;
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class AutoFlushTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        AutoFlushTest test = new AutoFlushTest();
+        test.testAutoFlush();
+        test.testCloseFlush();
+    }
+
+    public void testAutoFlush() throws Exception {
+        int port = 9975;
+        NioScheduler scheduler = new NioScheduler("CoAutoFlush");
+        scheduler.attachCurrentThread();
+        assertFalse(scheduler.isAutoFlush());
+        scheduler.setAutoFlush(true);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            peer.configureBlocking(false);
+            CoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register((NioCoSocket)socket);
+            NioCoOutputStream out = (NioCoOutputStream)socket.getOutputStream();
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+            ByteBuffer buf = ByteBuffer.allocate(256);
+
+            // Small writes coalesced till the end of the loop
+            scheduler.fork(c -> {
+                try {
+                    for (int i = 0; i < 100; ++i) socket.write(c, i);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertTrue(out.dirty);
+            assertTrue(out.flushQueued);
+            assertEquals(0, peer.read(buf));
+            scheduler.runAutoFlush();
+            assertEquals(1, scheduler.getAutoFlushes());
+            assertFalse(out.dirty);
+            assertFalse(out.flushQueued);
+            assertNull(out.buffer);
+            readFully(peer, buf, 100);
+            for (int i = 0; i < 100; ++i) assertEquals(i, buf.get(i));
+
+            // Explicit flush still works
+            scheduler.fork(c -> {
+                try {
+                    socket.write(c, new byte[10]);
+                    socket.flush(c);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertFalse(out.dirty);
+            readFully(peer, buf, 10);
+            scheduler.runAutoFlush();
+            assertEquals(1, scheduler.getAutoFlushes());
+            assertFalse(out.flushQueued);
+
+            // Max delay
+            scheduler.setAutoFlushDelayMicros(50000L);
+            assertEquals(50000L, scheduler.getAutoFlushDelayMicros());
+            scheduler.fork(c -> {
+                try {
+                    socket.write(c, new byte[]{1, 2, 3, 4, 5});
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            scheduler.runAutoFlush();
+            assertTrue(out.dirty);
+            assertEquals(1, scheduler.getAutoFlushes());
+            Thread.sleep(60);
+            scheduler.runAutoFlush();
+            assertFalse(out.dirty);
+            assertEquals(2, scheduler.getAutoFlushes());
+            readFully(peer, buf, 5);
+            assertEquals(5, buf.get(4));
+
+            // Not dirty if auto-flush disabled
+            scheduler.setAutoFlush(false);
+            scheduler.fork(c -> {
+                try {
+                    socket.write(c, 1);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertFalse(out.dirty);
+            assertFalse(out.flushQueued);
+            socket.close();
+            peer.close();
+        }
+    }
+
+    public void testCloseFlush() throws Exception {
+        int port = 9980;
+        NioScheduler scheduler = new NioScheduler("CoCloseFlush");
+        scheduler.attachCurrentThread();
+        scheduler.setAutoFlush(true);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+            ByteBuffer buf = ByteBuffer.allocate(256);
+
+            // Write then close without flush: the pending bytes flushed before EOF
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            peer.configureBlocking(false);
+            NioCoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register(socket);
+            scheduler.fork(c -> {
+                try {
+                    for (int i = 0; i < 100; ++i) socket.write(c, i);
+                    socket.close();
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertFalse(ch.isOpen());
+            readFully(peer, buf, 100);
+            for (int i = 0; i < 100; ++i) assertEquals(i, buf.get(i));
+            assertEquals(-1, readEnd(peer));
+            peer.close();
+
+            // Send buffer full: the close lingers till the pending bytes flushed
+            ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer2 = server.accept();
+            peer2.configureBlocking(false);
+            NioCoSocket socket2 = new NioCoSocket(ch, scheduler);
+            scheduler.register(socket2);
+            ByteBuffer fill = ByteBuffer.allocate(65536);
+            long filled = 0;
+            for (int n; (n = ch.write(fill)) > 0; fill.clear()) filled += n;
+            scheduler.fork(c -> {
+                try {
+                    socket2.write(c, new byte[100]);
+                    socket2.close();
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            NioCoOutputStream out = (NioCoOutputStream)socket2.getOutputStream();
+            assertTrue(ch.isOpen());
+            assertTrue(out.closePending);
+            long received = 0;
+            long deadline = System.currentTimeMillis() + 5000L;
+            for (int n; System.currentTimeMillis() < deadline; ) {
+                buf.clear();
+                n = peer2.read(buf);
+                if (n == -1) break;
+                received += n;
+                scheduler.runAutoFlush();
+                if (n == 0) Thread.sleep(1);
+            }
+            assertEquals(filled + 100, received);
+            assertFalse(ch.isOpen());
+            assertFalse(out.closePending);
+            peer2.close();
+        }
+    }
+
+    static int readEnd(SocketChannel peer) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(1);
+        long deadline = System.currentTimeMillis() + 5000L;
+        int n = 0;
+        while (n == 0 && System.currentTimeMillis() < deadline) {
+            if ((n = peer.read(buf)) == 0) Thread.sleep(1);
+        }
+        return n;
+    }
+
+    static void readFully(SocketChannel peer, ByteBuffer buf, int n) throws Exception {
+        buf.clear().limit(n);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (buf.hasRemaining() && System.currentTimeMillis() < deadline) {
+            if (peer.read(buf) == 0) Thread.sleep(1);
+        }
+        assertFalse(buf.hasRemaining());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.util.RuntimeUtils;
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class BufferArenaTest extends TestCase {
+
+    public static void main(String[] args) {
+        BufferArenaTest test = new BufferArenaTest();
+        test.testSizeClass();
+        test.testReuse();
+        test.testMaxBytes();
+        test.testDirectMemoryExhausted();
+        test.testMaxDirectMemory();
+    }
+
+    public void testSizeClass() {
+        assertEquals(0, NioBufferArena.sizeClass(0));
+        assertEquals(0, NioBufferArena.sizeClass(512));
+        assertEquals(1, NioBufferArena.sizeClass(513));
+        assertEquals(3, NioBufferArena.sizeClass(4096));
+        assertEquals(7, NioBufferArena.sizeClass(65536));
+        assertEquals(-1, NioBufferArena.sizeClass(65537));
+        assertEquals(4096, NioBufferArena.classSize(3));
+    }
+
+    public void testReuse() {
+        NioBufferArena arena = new NioBufferArena(64 << 10, 1 << 20);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        Map<ByteBuffer, Boolean> seen = new IdentityHashMap<>();
+        for (int i = 0; i < 16; ++i) {
+            ByteBuffer buf = arena.allocate(4000);
+            assertTrue(buf.isDirect());
+            assertEquals(4096, buf.capacity());
+            assertEquals(0, buf.position());
+            assertEquals(4096, buf.limit());
+            assertNull(seen.put(buf, true));
+            buffers.add(buf);
+        }
+        assertEquals(64 << 10, arena.getSlabBytes());
+        assertEquals(0, arena.getFreeCount(4096));
+
+        // No overlap between the slices of a slab
+        for (int i = 0; i < buffers.size(); ++i) {
+            ByteBuffer buf = buffers.get(i);
+            while (buf.hasRemaining()) buf.put((byte)i);
+        }
+        for (int i = 0; i < buffers.size(); ++i) {
+            ByteBuffer buf = buffers.get(i);
+            buf.flip();
+            while (buf.hasRemaining()) assertEquals((byte)i, buf.get());
+        }
+
+        for (ByteBuffer buf : buffers) {
+            buf.position(100);
+            arena.release(buf);
+        }
+        assertEquals(16, arena.getFreeCount(4096));
+        ByteBuffer buf = arena.allocate(4096);
+        assertTrue(seen.containsKey(buf));
+        assertEquals(0, buf.position());
+        assertEquals(64 << 10, arena.getSlabBytes());
+
+        // Not arena buffers
+        arena.release(ByteBuffer.allocate(4096));
+        arena.release(ByteBuffer.allocateDirect(1000));
+        assertEquals(15, arena.getFreeCount(4096));
+    }
+
+    public void testMaxBytes() {
+        NioBufferArena arena = new NioBufferArena(8192, 8192);
+        assertTrue(arena.allocate(4096).isDirect());
+        assertTrue(arena.allocate(4096).isDirect());
+        // Arena full or too big
+        assertFalse(arena.allocate(4096).isDirect());
+        assertFalse(arena.allocate(100000).isDirect());
+        assertEquals(8192, arena.getSlabBytes());
+    }
+
+    public void testDirectMemoryExhausted() {
+        int[] slabs = new int[1];
+        NioBufferArena arena = new NioBufferArena(64 << 10, 1 << 20) {
+            @Override
+            ByteBuffer allocateSlab(int size) {
+                if (++slabs[0] > 1) throw new OutOfMemoryError("Direct buffer memory");
+                return super.allocateSlab(size);
+            }
+        };
+        for (int i = 0; i < 16; ++i) {
+            assertTrue(arena.allocate(4096).isDirect());
+        }
+        // Heap buffers when the direct memory exhausted, and stops trying
+        assertFalse(arena.allocate(4096).isDirect());
+        assertFalse(arena.allocate(4096).isDirect());
+        assertEquals(2, slabs[0]);
+        assertEquals(64 << 10, arena.getSlabBytes());
+    }
+
+    public void testMaxDirectMemory() {
+        assertEquals(512L << 20, RuntimeUtils.parseSize("512m"));
+        assertEquals(2L << 30, RuntimeUtils.parseSize("2G"));
+        assertEquals(1000L, RuntimeUtils.parseSize("1000"));
+        assertEquals(-1L, RuntimeUtils.parseSize("x"));
+        assertTrue(RuntimeUtils.maxDirectMemory() > 0L);
+        assertTrue(NioBufferArena.MAX_BYTES <= 256L << 20);
+    }
+
+}
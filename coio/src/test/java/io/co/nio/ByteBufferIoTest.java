@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Continuation;
+import io.co.CoInputStream;
+import io.co.CoOutputStream;
+import io.co.CoSocket;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ByteBufferIoTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        ByteBufferIoTest test = new ByteBufferIoTest();
+        test.testReadWrite();
+        test.testDefaultBulk();
+    }
+
+    public void testReadWrite() throws Exception {
+        int port = 9973;
+        NioScheduler scheduler = new NioScheduler("CoByteBuffer");
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            CoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register((NioCoSocket)socket);
+            NioCoInputStream in = (NioCoInputStream)socket.getInputStream();
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+
+            byte[] data = new byte[100];
+            for (int i = 0; i < data.length; ++i) data[i] = (byte)i;
+            peer.write(ByteBuffer.wrap(data));
+            Thread.sleep(100);
+
+            int big = 3 * 4096 + 1;
+            scheduler.fork(c -> {
+                try {
+                    // Direct read without the stream buffer
+                    ByteBuffer dst = ByteBuffer.allocateDirect(30);
+                    assertEquals(30, socket.read(c, dst));
+                    assertNull(in.buffer);
+                    assertEquals(29, dst.get(29));
+
+                    // Buffered: read(co) fills the stream buffer
+                    assertEquals(30, socket.read(c));
+                    assertNotNull(in.buffer);
+                    dst.clear();
+                    assertEquals(30, socket.read(c, dst));
+                    assertEquals(31, dst.get(0));
+                    dst = ByteBuffer.allocate(39);
+                    assertEquals(39, socket.readFully(c, dst));
+                    assertEquals(99, dst.get(38));
+                    assertNull(in.buffer);
+
+                    // Small buffered, then big written directly in order
+                    socket.write(c, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+                    ByteBuffer src = ByteBuffer.allocateDirect(big);
+                    for (int i = 0; i < big; ++i) src.put((byte)(i + 4));
+                    src.flip();
+                    socket.write(c, src);
+                    assertFalse(src.hasRemaining());
+                    socket.write(c, ByteBuffer.wrap(new byte[]{9}));
+                    socket.flush(c);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+
+            ByteBuffer buf = ByteBuffer.allocate(3 + big + 1);
+            peer.configureBlocking(true);
+            while (buf.hasRemaining()) peer.read(buf);
+            buf.flip();
+            for (int i = 0; i < 3 + big; ++i) {
+                assertEquals((byte)(i + 1), buf.get());
+            }
+            assertEquals(9, buf.get());
+            socket.close();
+            peer.close();
+        }
+    }
+
+    /** The default ByteBuffer methods go through the byte[] methods, not per byte. */
+    public void testDefaultBulk() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        int[] singles = new int[1];
+        CoOutputStream out = new CoOutputStream() {
+            @Override
+            public void write(Continuation co, int b) {
+                ++singles[0];
+                sink.write(b);
+            }
+
+            @Override
+            public void write(Continuation co, byte[] b, int off, int len) {
+                sink.write(b, off, len);
+            }
+
+            @Override
+            public void flush(Continuation co) {}
+
+            @Override
+            public void close() {}
+        };
+
+        ByteBuffer heap = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4}, 1, 3).slice();
+        out.write(null, heap);
+        assertFalse(heap.hasRemaining());
+        int big = 10000;
+        ByteBuffer direct = ByteBuffer.allocateDirect(big);
+        for (int i = 0; i < big; ++i) direct.put((byte)(i + 4));
+        direct.flip();
+        out.write(null, new ByteBuffer[]{direct});
+        assertFalse(direct.hasRemaining());
+        assertEquals(0, singles[0]);
+        byte[] b = sink.toByteArray();
+        assertEquals(3 + big, b.length);
+        for (int i = 0; i < b.length; ++i) assertEquals((byte)(i + 1), b[i]);
+
+        CoInputStream in = new CoInputStream() {
+            int next;
+
+            @Override
+            public int read(Continuation co) {
+                return next < b.length? b[next++] & 0xff: -1;
+            }
+
+            @Override
+            public int read(Continuation co, byte[] buf, int off, int len) {
+                int n = Math.min(len, b.length - next);
+                if (n == 0) return -1;
+                System.arraycopy(b, next, buf, off, n);
+                next += n;
+                return n;
+            }
+
+            @Override
+            public void close() {}
+        };
+        ByteBuffer dst = ByteBuffer.allocateDirect(3 + big);
+        assertEquals(3 + big, in.readFully(null, dst));
+        dst.flip();
+        for (int i = 0; i < b.length; ++i) assertEquals(b[i], dst.get());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
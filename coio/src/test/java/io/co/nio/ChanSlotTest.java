@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.Scheduler;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ChanSlotTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        ChanSlotTest test = new ChanSlotTest();
+        test.testAllocRelease();
+        test.testShrink();
+        test.testChurn();
+        test.benchChurn();
+    }
+
+    public void testAllocRelease() throws IOException {
+        NioScheduler scheduler = newScheduler(16, 1000);
+        Random random = new Random(1);
+        List<TestChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            channels.add(register(scheduler));
+        }
+        try {
+            register(scheduler);
+            fail();
+        } catch (IOException e) {
+            // Too many connections
+        }
+
+        for (int i = 0; i < 500; ++i) {
+            channels.remove(random.nextInt(channels.size())).close();
+        }
+        assertEquals(500, scheduler.getConnections());
+        for (int i = 0; i < 500; ++i) {
+            channels.add(register(scheduler));
+        }
+        assertEquals(1000, scheduler.getConnections());
+
+        Set<Integer> ids = new HashSet<>();
+        for (TestChannel ch : channels) {
+            assertTrue(ch.id() >= 0 && ch.id() < 1000);
+            assertTrue(ids.add(ch.id()));
+            assertSame(ch, scheduler.slotCoChannel(ch));
+        }
+    }
+
+    public void testShrink() throws IOException {
+        int init = 16, n = 100000;
+        NioScheduler scheduler = newScheduler(init, n);
+        List<TestChannel> channels = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            channels.add(register(scheduler));
+        }
+        assertTrue(scheduler.getChanSlotCapacity() >= n);
+        // Close the early ones first: the top slots are kept till the last ones closed
+        for (TestChannel ch : channels) {
+            ch.close();
+        }
+        assertEquals(0, scheduler.getConnections());
+        assertEquals(init, scheduler.getChanSlotCapacity());
+
+        // Closed but not recycled: reclaimed when the slots used up
+        scheduler = newScheduler(init, init);
+        for (int i = 0; i < init; ++i) {
+            register(scheduler).open = false;
+        }
+        for (int i = 0; i < init; ++i) {
+            register(scheduler);
+        }
+        assertEquals(init, scheduler.getConnections());
+    }
+
+    public void testChurn() throws IOException {
+        int live = 1000;
+        NioScheduler scheduler = newScheduler(16, live);
+        TestChannel[] channels = churn(scheduler, live, 10000);
+        Set<Integer> ids = new HashSet<>();
+        for (TestChannel ch : channels) {
+            assertTrue(ch.id() >= 0 && ch.id() < live);
+            assertTrue(ids.add(ch.id()));
+            assertSame(ch, scheduler.slotCoChannel(ch));
+        }
+    }
+
+    /** The close + accept cost by the live connections, a benchmark only run by
+     * main().
+     */
+    public void benchChurn() throws IOException {
+        int turns = 1000000;
+        for (int live = 1000; live <= 100000; live *= 10) {
+            NioScheduler scheduler = newScheduler(16, live);
+            long ts = System.nanoTime();
+            churn(scheduler, live, turns);
+            long te = System.nanoTime();
+            info("live connections %6d: close + accept %sns", live, (te - ts) / turns);
+        }
+    }
+
+    /** Close a random live channel and register a new one in each turn. */
+    static TestChannel[] churn(NioScheduler scheduler, int live, int turns)
+            throws IOException {
+        Random random = new Random(live);
+        TestChannel[] channels = new TestChannel[live];
+        for (int i = 0; i < live; ++i) {
+            channels[i] = register(scheduler);
+        }
+        for (int i = 0; i < turns; ++i) {
+            int k = random.nextInt(live);
+            channels[k].close();
+            channels[k] = register(scheduler);
+        }
+        assertEquals(live, scheduler.getConnections());
+        return channels;
+    }
+
+    static NioScheduler newScheduler(int init, int max) {
+        NioScheduler scheduler = new NioScheduler("CoSlot", init, max);
+        scheduler.attachCurrentThread();
+        return scheduler;
+    }
+
+    static TestChannel register(NioScheduler scheduler) throws IOException {
+        TestChannel ch = new TestChannel(scheduler);
+        scheduler.register(ch);
+        return ch;
+    }
+
+    static class TestChannel implements NioCoChannel<Channel> {
+        final NioScheduler scheduler;
+        boolean open = true;
+        int id = -1;
+
+        TestChannel(NioScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public int id() {
+            return this.id;
+        }
+
+        @Override
+        public void id(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Channel channel() {
+            return null;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() {
+            NioCoChannel.super.close();
+            this.open = false;
+        }
+
+        @Override
+        public Scheduler getScheduler() {
+            return this.scheduler;
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class CloseTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        CloseTest test = new CloseTest();
+        test.testCrossThreadClose();
+    }
+
+    /** The socket closed by other threads while its coroutine waits for reading: the
+     * coroutine is resumed with the close error, and the slot recycled.
+     */
+    public void testCrossThreadClose() throws Exception {
+        int port = 9983;
+        NioScheduler scheduler = new NioScheduler("CoCrossClose");
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            NioCoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register(socket);
+            socket.setSoTimeout(5000);
+            assertEquals(1, scheduler.getConnections());
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+
+            Thread closer = new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                socket.close();
+            }, "closer");
+            closer.start();
+            scheduler.fork(c -> {
+                try {
+                    socket.read(c);
+                } catch (Throwable e) {
+                    cause.set(e);
+                } finally {
+                    scheduler.shutdown();
+                }
+            });
+            scheduler.run();
+            closer.join();
+
+            assertTrue(scheduler.isTerminated());
+            assertTrue(cause.get() instanceof ClosedChannelException);
+            assertFalse(ch.isOpen());
+            assertEquals(0, scheduler.getConnections());
+            peer.close();
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Coroutine;
+import io.co.CoContext;
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ContextPoolTest extends TestCase {
+
+    static final Coroutine NOOP = c -> {};
+
+    public static void main(String[] args) {
+        ContextPoolTest test = new ContextPoolTest();
+        test.testReuse();
+        test.testAllocation();
+    }
+
+    public void testReuse() {
+        NioScheduler scheduler = new NioScheduler("CoPool");
+        scheduler.setContextPoolSize(4);
+        scheduler.dispatch(() -> {
+            CoContext a = scheduler.fork(NOOP, null, CoContext.PRIORITY_HIGH);
+            a.attach("a");
+            NioCoContextPool pool = scheduler.contextPool();
+            assertEquals(1, pool.size());
+            CoContext b = scheduler.fork(NOOP);
+            assertSame(a, b);
+            assertNull(b.attach());
+            assertEquals(CoContext.PRIORITY_NORMAL, b.getPriority());
+            assertEquals(1, pool.getCreated());
+            assertEquals(1, pool.getReused());
+            scheduler.shutdown();
+        });
+        scheduler.run();
+    }
+
+    public void testAllocation() {
+        int forks = 100000;
+        long unpooled = allocatedPerFork(0, forks);
+        long pooled = allocatedPerFork(64, forks);
+        info("allocated per fork: unpooled %sB, pooled %sB", unpooled, pooled);
+        if (unpooled >= 0) {
+            assertTrue(pooled < unpooled);
+        }
+    }
+
+    static long allocatedPerFork(int poolSize, int forks) {
+        NioScheduler scheduler = new NioScheduler("CoAlloc");
+        scheduler.setContextPoolSize(poolSize);
+        long[] result = {-1L};
+        scheduler.dispatch(() -> {
+            for (int i = 0; i < forks; ++i) {
+                scheduler.fork(NOOP);
+            }
+            long before = allocatedBytes();
+            for (int i = 0; i < forks; ++i) {
+                scheduler.fork(NOOP);
+            }
+            long after = allocatedBytes();
+            if (before != -1L) {
+                result[0] = (after - before) / forks;
+            }
+            scheduler.shutdown();
+        });
+        scheduler.run();
+        return result[0];
+    }
+
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)bean;
+            return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
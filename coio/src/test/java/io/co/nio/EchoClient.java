@@ -18,6 +18,8 @@ package io.co.nio;
 
 import com.offbynull.coroutines.user.Coroutine;
 import io.co.*;
+import io.co.thread.ThreadCoSocket;
+import io.co.thread.ThreadScheduler;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -41,10 +43,10 @@ public class EchoClient {
         else requests = 100;
 
         long ts = System.currentTimeMillis();
-        Scheduler scheduler = new NioScheduler();
+        Scheduler scheduler = newScheduler();
         AtomicInteger counter = new AtomicInteger(conns);
         for (int i = 0; i < conns; ++i) {
-            CoSocket socket = new NioCoSocket(scheduler);
+            CoSocket socket = newSocket(scheduler);
             Coroutine co = c -> {
                 try {
                     debug("%s connect to localhost:%s", socket, port);
@@ -74,6 +76,25 @@ public class EchoClient {
         info("Client: time %dms", te - ts);
     }
 
+    /** Create the scheduler of the backend by the system property "io.co.backend",
+     * "nio" by default, or "thread" that runs each coroutine in a (virtual) thread.
+     */
+    static Scheduler newScheduler() {
+        if ("thread".equals(System.getProperty("io.co.backend"))) {
+            return new ThreadScheduler();
+        } else {
+            return new NioScheduler();
+        }
+    }
+
+    static CoSocket newSocket(Scheduler scheduler) {
+        if (scheduler instanceof ThreadScheduler) {
+            return new ThreadCoSocket(scheduler);
+        } else {
+            return new NioCoSocket(scheduler);
+        }
+    }
+
     static {
         System.setProperty("io.co.debug", "false");
         System.setProperty("io.co.soTimeout", "30000");
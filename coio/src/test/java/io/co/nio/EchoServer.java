@@ -18,6 +18,7 @@ package io.co.nio;
 
 import com.offbynull.coroutines.user.Coroutine;
 import io.co.*;
+import io.co.thread.ThreadCoServerSocket;
 import static io.co.util.LogUtils.*;
 
 import java.io.EOFException;
@@ -37,7 +38,7 @@ public class EchoServer {
     public static void main(String[] args) {
         int port = Integer.getInteger("io.co.port", 9999);
 
-        try (CoServerSocket server = new NioCoServerSocket()) {
+        try (CoServerSocket server = newServerSocket()) {
             scheduler = server.getScheduler();
             server.bind(port);
             startServer(server);
@@ -47,6 +48,17 @@ public class EchoServer {
         }
     }
 
+    /** Create the server socket of the backend by the system property "io.co.backend",
+     * "nio" by default, or "thread" that runs each coroutine in a (virtual) thread.
+     */
+    static CoServerSocket newServerSocket() throws IOException {
+        if ("thread".equals(System.getProperty("io.co.backend"))) {
+            return new ThreadCoServerSocket();
+        } else {
+            return new NioCoServerSocket();
+        }
+    }
+
     static void startServer(CoServerSocket server) {
         Scheduler scheduler = server.getScheduler();
         Coroutine serverCo = s -> {
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Coroutine;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class FileTransferTest extends TestCase {
+
+    static final int FILE_SIZE = Integer.getInteger("io.co.test.fileSize", 64 << 20);
+
+    public static void main(String[] args) throws Exception {
+        FileTransferTest test = new FileTransferTest();
+        test.testTransferFrom();
+        test.benchThroughput();
+    }
+
+    public void testTransferFrom() throws Exception {
+        File file = createFile(1 << 20);
+        try {
+            // A region, the tail beyond the end of file, and the empty one
+            assertEquals(1000, transfer(9976, file, 100, 1000, true));
+            assertEquals(1000, transfer(9976, file, (1 << 20) - 1000, 5000, true));
+            assertEquals(0, transfer(9976, file, 0, 0, true));
+            assertEquals(1000, transfer(9976, file, 100, 1000, false));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    /** Compare the throughput of transferFrom() with the byte[] path, a benchmark
+     * only run by main().
+     */
+    public void benchThroughput() throws Exception {
+        File file = createFile(FILE_SIZE);
+        try {
+            for (int i = 0; i < 2; ++i) {
+                long byteArray = transferTime(file, false);
+                long zeroCopy = transferTime(file, true);
+                info("Transfer %sMB: byte[] %.1fMB/s, transferFrom %.1fMB/s",
+                        FILE_SIZE >> 20, throughput(byteArray), throughput(zeroCopy));
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    static long transferTime(File file, boolean zeroCopy) throws Exception {
+        long start = System.nanoTime();
+        assertEquals(FILE_SIZE, transfer(9977, file, 0, FILE_SIZE, zeroCopy, false));
+        return System.nanoTime() - start;
+    }
+
+    static double throughput(long nanos) {
+        return FILE_SIZE / (1024.0 * 1024.0) * 1000_000_000.0 / nanos;
+    }
+
+    static long transfer(int port, File file, long position, long count, boolean zeroCopy)
+            throws Exception {
+        return transfer(port, file, position, count, zeroCopy, true);
+    }
+
+    /** Send the region after an 8 bytes header in the server coroutine, and check
+     * the bytes received by the blocking client if check.
+     *
+     * @return the number of the region bytes received
+     */
+    static long transfer(int port, File file, long position, long count, boolean zeroCopy,
+                         boolean check) throws Exception {
+        AtomicReference<Throwable> cause = new AtomicReference<>();
+        AtomicLong sent = new AtomicLong(-1);
+        AtomicLong received = new AtomicLong();
+        NioScheduler scheduler = new NioScheduler("CoFileTransfer");
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            Thread client = new Thread(() -> {
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    InputStream in = socket.getInputStream();
+                    assertEquals(position & 0xff, new DataInputStream(in).readLong());
+                    byte[] buf = new byte[64 << 10];
+                    long n = 0;
+                    for (int i; (i = in.read(buf)) != -1; n += i) {
+                        for (int j = 0; check && j < i; ++j) {
+                            assertEquals(pattern(position + n + j), buf[j]);
+                        }
+                    }
+                    received.set(n);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            }, "FileTransfer-client");
+            client.start();
+            SocketChannel ch = server.accept();
+            ch.configureBlocking(false);
+            NioCoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register(socket);
+
+            Coroutine serverCo = s -> {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    FileChannel src = raf.getChannel();
+                    socket.write(s, new byte[]{0, 0, 0, 0});
+                    socket.write(s, new byte[]{0, 0, 0, (byte)position});
+                    if (zeroCopy) {
+                        sent.set(socket.transferFrom(s, src, position, count));
+                    } else {
+                        byte[] buf = new byte[64 << 10];
+                        long n = 0;
+                        raf.seek(position);
+                        while (n < count) {
+                            int i = raf.read(buf, 0, (int)Math.min(buf.length, count - n));
+                            if (i == -1) break;
+                            socket.write(s, buf, 0, i);
+                            n += i;
+                        }
+                        socket.flush(s);
+                        sent.set(n);
+                    }
+                } catch (Throwable e) {
+                    cause.set(e);
+                } finally {
+                    socket.close();
+                    scheduler.shutdown();
+                }
+            };
+            scheduler.fork(serverCo);
+            scheduler.run();
+            client.join();
+        }
+
+        if (cause.get() != null) throw new AssertionError(cause.get());
+        assertEquals(sent.get(), received.get());
+        return received.get();
+    }
+
+    static File createFile(int size) throws Exception {
+        File file = File.createTempFile("coio-transfer", ".bin");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] buf = new byte[64 << 10];
+            for (int n = 0; n < size; n += buf.length) {
+                int len = Math.min(buf.length, size - n);
+                for (int j = 0; j < len; ++j) buf[j] = pattern(n + j);
+                raf.write(buf, 0, len);
+            }
+        }
+        return file;
+    }
+
+    static byte pattern(long i) {
+        return (byte)(i * 31 + (i >>> 8));
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
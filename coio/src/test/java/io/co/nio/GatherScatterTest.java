@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.CoSocket;
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class GatherScatterTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        GatherScatterTest test = new GatherScatterTest();
+        test.testGatherScatter();
+    }
+
+    public void testGatherScatter() throws Exception {
+        int port = 9974;
+        NioScheduler scheduler = new NioScheduler("CoGatherScatter");
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            CoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register((NioCoSocket)socket);
+            NioCoInputStream in = (NioCoInputStream)socket.getInputStream();
+            NioCoOutputStream out = (NioCoOutputStream)socket.getOutputStream();
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+
+            byte[] data = new byte[100];
+            for (int i = 0; i < data.length; ++i) data[i] = (byte)i;
+            peer.write(ByteBuffer.wrap(data));
+            Thread.sleep(100);
+
+            // Big enough to be written partially
+            int big = 2 << 20;
+            ByteBuffer head = ByteBuffer.wrap(new byte[]{4, 5, 6, 7, 8});
+            ByteBuffer body = ByteBuffer.allocateDirect(big);
+            for (int i = 0; i < big; ++i) body.put((byte)(i + 9));
+            body.flip();
+            ByteBuffer tail = ByteBuffer.wrap(new byte[]{1});
+            int total = 3 + 5 + big + 1;
+            ByteBuffer recv = ByteBuffer.allocate(total);
+            Thread reader = new Thread(() -> {
+                try {
+                    while (recv.hasRemaining()) peer.read(recv);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            }, "GatherScatter-reader");
+
+            scheduler.fork(c -> {
+                try {
+                    // Scattering from the stream buffer
+                    assertEquals(0, socket.read(c));
+                    assertNotNull(in.buffer);
+                    ByteBuffer a = ByteBuffer.allocate(10), b = ByteBuffer.allocate(20);
+                    assertEquals(30, socket.read(c, new ByteBuffer[]{a, b}));
+                    assertEquals(10, a.get(9));
+                    assertEquals(30, b.get(19));
+                    ByteBuffer rest = ByteBuffer.allocate(100);
+                    assertEquals(69, socket.read(c, new ByteBuffer[]{a, rest}));
+                    assertEquals(99, rest.get(68));
+                    assertNull(in.buffer);
+
+                    // Scattering from the channel
+                    peer.write(ByteBuffer.wrap(data, 0, 50));
+                    Thread.sleep(100);
+                    a = ByteBuffer.allocate(20);
+                    b = ByteBuffer.allocateDirect(40);
+                    assertEquals(50, socket.read(c, new ByteBuffer[]{a, b}));
+                    assertFalse(a.hasRemaining());
+                    assertEquals(30, b.position());
+                    assertEquals(49, b.get(29));
+                    assertNull(in.buffer);
+                    assertEquals(0, socket.read(c, new ByteBuffer[]{a}));
+
+                    // Gathering with the buffered bytes
+                    socket.write(c, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+                    assertNotNull(out.buffer);
+                    reader.start();
+                    socket.write(c, new ByteBuffer[]{head, body, tail});
+                    assertFalse(head.hasRemaining());
+                    assertFalse(body.hasRemaining());
+                    assertFalse(tail.hasRemaining());
+                    assertNull(out.buffer);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+
+            reader.join(10000);
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertFalse(recv.hasRemaining());
+            recv.flip();
+            for (int i = 0; i < total - 1; ++i) {
+                assertEquals((byte)(i + 1), recv.get());
+            }
+            assertEquals(1, recv.get());
+            socket.close();
+            peer.close();
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
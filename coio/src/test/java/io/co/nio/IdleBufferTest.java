@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.CoSocket;
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class IdleBufferTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        IdleBufferTest test = new IdleBufferTest();
+        test.testReleaseWhenDrained();
+        test.testMigrateBuffers();
+    }
+
+    public void testReleaseWhenDrained() throws Exception {
+        int port = 9972;
+        NioScheduler scheduler = new NioScheduler("CoIdle");
+        scheduler.attachCurrentThread();
+        NioBufferArena arena = scheduler.bufferArena();
+        if (arena == null) {
+            return;
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            CoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register((NioCoSocket)socket);
+            NioCoInputStream in = (NioCoInputStream)socket.getInputStream();
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+            // Idle: no buffer
+            assertNull(in.buffer);
+
+            peer.write(ByteBuffer.wrap(new byte[100]));
+            while (socket.available(null) < 100) {
+                Thread.sleep(1);
+            }
+            scheduler.fork(c -> {
+                try {
+                    byte[] b = new byte[60];
+                    assertEquals(60, socket.read(c, b));
+                    // Partially drained: hold the buffer
+                    assertNotNull(in.buffer);
+                    assertEquals(40, socket.read(c, b, 0, 40));
+                    assertNull(in.buffer);
+
+                    socket.write(c, 1);
+                    socket.write(c, new byte[10]);
+                    socket.flush(c);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            assertNull(cause.get());
+            assertNull(in.buffer);
+
+            // All buffers back in the arena after drained and flushed
+            int slabBuffers = (int)(arena.getSlabBytes() / 4096);
+            assertTrue(slabBuffers > 0);
+            assertEquals(slabBuffers, arena.getFreeCount(4096));
+
+            ByteBuffer buf = ByteBuffer.allocate(11);
+            peer.configureBlocking(true);
+            while (buf.hasRemaining()) peer.read(buf);
+            assertEquals(1, buf.get(0));
+            socket.close();
+            peer.close();
+        }
+    }
+
+    /** The stream buffers leased from the source arena are released into it when the
+     * socket is migrated, and the buffered bytes are kept for the target.
+     */
+    public void testMigrateBuffers() throws Exception {
+        int port = 9985;
+        NioScheduler source = new NioScheduler("CoSource");
+        NioScheduler target = new NioScheduler("CoTarget");
+        source.attachCurrentThread();
+        target.attachCurrentThread();
+        NioBufferArena arena = source.bufferArena();
+        if (arena == null) {
+            return;
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            NioCoSocket socket = new NioCoSocket(ch, source);
+            source.register(socket);
+            NioCoInputStream in = (NioCoInputStream)socket.getInputStream();
+            NioCoOutputStream out = (NioCoOutputStream)socket.getOutputStream();
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+            byte[] data = new byte[100];
+            for (int i = 0; i < data.length; ++i) data[i] = (byte)i;
+
+            peer.write(ByteBuffer.wrap(data));
+            while (socket.available(null) < 100) {
+                Thread.sleep(1);
+            }
+            source.fork(c -> {
+                try {
+                    assertEquals(60, socket.read(c, new byte[60]));
+                    socket.write(c, data, 0, 10);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertTrue(in.buffer.isDirect());
+            assertTrue(out.buffer.isDirect());
+
+            // Released into the source arena, and the bytes kept in the heap
+            in.migrateBuffer();
+            out.migrateBuffer();
+            assertFalse(in.buffer.isDirect());
+            assertFalse(out.buffer.isDirect());
+            int slabBuffers = (int)(arena.getSlabBytes() / 4096);
+            assertEquals(slabBuffers, arena.getFreeCount(4096));
+
+            socket.deregister();
+            socket.setScheduler(target);
+            target.register(socket);
+            target.fork(c -> {
+                try {
+                    byte[] b = new byte[40];
+                    assertEquals(40, socket.read(c, b));
+                    for (int i = 0; i < b.length; ++i) assertEquals(60 + i, b[i]);
+                    socket.flush(c);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertNull(in.buffer);
+            assertNull(out.buffer);
+            // The heap copies never go into the target arena
+            NioBufferArena targetArena = target.bufferArena();
+            assertEquals(targetArena.getSlabBytes() / 4096, targetArena.getFreeCount(4096));
+            assertEquals(0, targetArena.getSlabBytes());
+
+            ByteBuffer buf = ByteBuffer.allocate(10);
+            peer.configureBlocking(true);
+            while (buf.hasRemaining()) peer.read(buf);
+            assertEquals(9, buf.get(9));
+            socket.close();
+            peer.close();
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
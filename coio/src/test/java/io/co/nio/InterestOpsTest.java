@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class InterestOpsTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        InterestOpsTest test = new InterestOpsTest();
+        test.testInterestOps();
+    }
+
+    /** The cached interest set always equals the one of the selection key: after
+     * waiting, resuming, the sticky and non-sticky reads, and migration.
+     */
+    public void testInterestOps() throws Exception {
+        int port = 9981;
+        NioScheduler scheduler = new NioScheduler("CoInterestOps");
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            peer.configureBlocking(false);
+            NioCoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register(socket);
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+            final int read = SelectionKey.OP_READ, write = SelectionKey.OP_WRITE;
+            assertNull(socket.selectionKey());
+
+            // Registered at the first wait, and the interest kept after resumed
+            scheduler.fork(c -> {
+                try {
+                    socket.await(c, read);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            SelectionKey key = socket.selectionKey();
+            assertNotNull(key);
+            assertInterestOps(socket, read);
+            socket.resumeReady();
+            assertEquals(0, socket.waitOps);
+            assertInterestOps(socket, read);
+
+            // Enable and disable change the key only when the set changes
+            socket.enableOps(read);
+            assertSame(key, socket.selectionKey());
+            assertInterestOps(socket, read);
+            socket.enableOps(write);
+            assertInterestOps(socket, read | write);
+            socket.disableOps(write);
+            socket.disableOps(write);
+            assertInterestOps(socket, read);
+
+            // Ready but nobody waits: disabled lazily
+            socket.onReady(read);
+            assertInterestOps(socket, 0);
+            assertFalse(socket.ready);
+
+            // Sticky read keeps the read interest
+            socket.setStickyRead(true);
+            socket.enableOps(read);
+            peer.write(ByteBuffer.wrap(new byte[]{1, 2}));
+            Thread.sleep(50);
+            scheduler.fork(c -> {
+                try {
+                    assertEquals(1, socket.read(c));
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertInterestOps(socket, read);
+
+            // Non-sticky read disables the read interest after reading
+            socket.setStickyRead(false);
+            peer.write(ByteBuffer.wrap(new byte[]{3}));
+            Thread.sleep(50);
+            scheduler.fork(c -> {
+                try {
+                    // The buffered byte first, then read the channel
+                    assertEquals(2, socket.read(c));
+                    assertEquals(3, socket.read(c));
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertInterestOps(socket, 0);
+            assertSame(key, socket.selectionKey());
+
+            // Migration: deregistered from the source, then re-registered in the
+            // target with the same interest set
+            NioScheduler target = new NioScheduler("CoInterestOpsTarget");
+            target.attachCurrentThread();
+            socket.enableOps(read);
+            int ops = socket.deregister();
+            assertEquals(read, ops);
+            assertNull(socket.selectionKey());
+            assertFalse(key.isValid());
+            socket.setScheduler(target);
+            target.register(socket);
+            socket.interestOps(ops);
+            key = socket.selectionKey();
+            assertSame(target.selector, key.selector());
+            assertInterestOps(socket, read);
+            target.fork(c -> {
+                try {
+                    socket.await(c, write);
+                } catch (Throwable e) {
+                    cause.set(e);
+                }
+            });
+            if (cause.get() != null) throw new AssertionError(cause.get());
+            assertSame(key, socket.selectionKey());
+            assertInterestOps(socket, read | write);
+            socket.resumeReady();
+            assertEquals(0, socket.waitOps);
+
+            socket.close();
+            peer.close();
+        }
+    }
+
+    static void assertInterestOps(NioCoSocket socket, int ops) {
+        assertEquals(ops, socket.interestOps());
+        assertEquals(ops, socket.selectionKey().interestOps());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
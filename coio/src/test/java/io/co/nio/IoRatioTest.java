@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import static io.co.nio.NioScheduler.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class IoRatioTest extends TestCase {
+
+    public static void main(String[] args) {
+        IoRatioTest test = new IoRatioTest();
+        test.testAdaptive();
+    }
+
+    /** The adaptive ioRatio converges by the synthetic loop feedback, and is clamped
+     * in the range [IO_RATIO_MIN, IO_RATIO_MAX].
+     */
+    public void testAdaptive() {
+        NioScheduler scheduler = new NioScheduler("CoIoRatio");
+        scheduler.setAdaptiveIoRatio(true);
+        final int base = scheduler.getIoRatio();
+        assertEquals(clampIoRatio(ioRatio), base);
+
+        // Tasks delay the IO: raised till the max
+        scheduler.adaptIoRatio(1, 0L, 0L, LOOP_LATENCY_NANOS + 1);
+        assertEquals(clampIoRatio(base + IO_RATIO_STEP), scheduler.getIoRatio());
+        for (int i = 0; i < 100; ++i) {
+            scheduler.adaptIoRatio(1, 0L, 0L, LOOP_LATENCY_NANOS + 1);
+        }
+        assertEquals(IO_RATIO_MAX, scheduler.getIoRatio());
+
+        // The non-blocking select counted in the loop latency
+        scheduler.setAdaptiveIoRatio(false);
+        assertEquals(ioRatio, scheduler.getIoRatio());
+        scheduler.setAdaptiveIoRatio(true);
+        scheduler.adaptIoRatio(1, LOOP_LATENCY_NANOS, 0L, 1L);
+        assertEquals(clampIoRatio(base + IO_RATIO_STEP), scheduler.getIoRatio());
+        // Low latency and no task queued: back to the configured gradually
+        scheduler.adaptIoRatio(1, 0L, 0L, 1L);
+        assertEquals(clampIoRatio(base + IO_RATIO_STEP) - 1, scheduler.getIoRatio());
+
+        // Tasks left in the queue: lowered slightly, or by step beyond the ready keys
+        int tasks = 10;
+        for (int i = 0; i < tasks; ++i) {
+            scheduler.dispatch(() -> {});
+        }
+        int ratio = scheduler.getIoRatio();
+        scheduler.adaptIoRatio(tasks, 0L, 0L, 0L);
+        assertEquals(ratio - 1, scheduler.getIoRatio());
+        scheduler.adaptIoRatio(1, 0L, 0L, 0L);
+        assertEquals(ratio - 1 - IO_RATIO_STEP, scheduler.getIoRatio());
+        for (int i = 0; i < 100; ++i) {
+            scheduler.adaptIoRatio(1, 0L, 0L, 0L);
+        }
+        assertEquals(IO_RATIO_MIN, scheduler.getIoRatio());
+
+        // Queue drained: converges to the configured one
+        while (scheduler.syncQueue.poll() != null);
+        scheduler.adaptIoRatio(1, 0L, 0L, 0L);
+        assertEquals(IO_RATIO_MIN + 1, scheduler.getIoRatio());
+        for (int i = 0; i < 100; ++i) {
+            scheduler.adaptIoRatio(1, 0L, 0L, 0L);
+        }
+        assertEquals(base, scheduler.getIoRatio());
+
+        scheduler.dispatch(scheduler::shutdown);
+        scheduler.run();
+        assertTrue(scheduler.isTerminated());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Coroutine;
+import io.co.*;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author little-pan
+ * @since 2021-04-24
+ *
+ */
+public class MigrateTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        MigrateTest test = new MigrateTest();
+        test.testMigrateSelf();
+        test.testMigrateWaiting();
+    }
+
+    /** The connection coroutine moves itself to the other scheduler of the group
+     * after the first request, then handles the rest requests there.
+     */
+    public void testMigrateSelf() throws Exception {
+        testMigrate(9967, true);
+    }
+
+    /** The source scheduler moves the connection that is waiting for reading. */
+    public void testMigrateWaiting() throws Exception {
+        testMigrate(9968, false);
+    }
+
+    void testMigrate(int port, boolean self) throws Exception {
+        int conns = 64, requests = 10;
+        NioSchedulerGroup group = new NioSchedulerGroup("CoWorker", 2);
+        NioScheduler source = group.get(0), target = group.get(1);
+        AtomicInteger migrated = new AtomicInteger();
+        AtomicInteger handled = new AtomicInteger();
+        group.start();
+        NioCoServerSocket server = new NioCoServerSocket(source);
+        server.bind(port);
+
+        Coroutine serverCo = s -> {
+            for (int i = 0; i < conns; ++i) {
+                NioCoSocket socket = server.accept(s);
+                Coroutine connCo = c -> {
+                    try {
+                        for (int j = 0; j < requests; ++j) {
+                            int b = socket.read(c);
+                            if (j == 0) {
+                                assertTrue(source.inScheduler());
+                                if (self) {
+                                    socket.migrate(c, target);
+                                    assertTrue(target.inScheduler());
+                                } else {
+                                    // Migrate when suspended in the next read
+                                    source.schedule(() -> source.migrate(socket, target), 1);
+                                }
+                            } else {
+                                assertTrue(target.inScheduler());
+                                assertSame(target, socket.getScheduler());
+                                if (j == 1) migrated.incrementAndGet();
+                            }
+                            socket.write(c, b);
+                            socket.flush(c);
+                        }
+                        handled.incrementAndGet();
+                    } finally {
+                        socket.close();
+                    }
+                };
+                source.fork(connCo, socket);
+            }
+            server.close();
+        };
+        source.fork(serverCo, server);
+
+        NioScheduler scheduler = new NioScheduler("CoClient");
+        AtomicInteger counter = new AtomicInteger();
+        for (int i = 0; i < conns; ++i) {
+            CoSocket socket = new NioCoSocket(scheduler);
+            Coroutine co = c -> {
+                try {
+                    socket.connect(c, port);
+                    for (int j = 0; j < requests; ++j) {
+                        socket.write(c, j);
+                        socket.flush(c);
+                        int r = socket.read(c);
+                        if (r != j) throw new AssertionError("client: " + j + " neq " + r);
+                        // Let the server migrate the waiting socket
+                        if (j == 0) scheduler.await(c, 50);
+                    }
+                } finally {
+                    socket.close();
+                    if (counter.incrementAndGet() == conns) scheduler.shutdown();
+                }
+            };
+            scheduler.fork(co, socket);
+        }
+        scheduler.run();
+
+        group.shutdown();
+        group.awaitTermination();
+        assertEquals(conns, migrated.get());
+        assertEquals(conns, handled.get());
+        assertEquals(0, target.getConnections());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
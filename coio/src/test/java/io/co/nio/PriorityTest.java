@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import io.co.CoContext;
+import io.co.CoSocket;
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.co.CoContext.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class PriorityTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        PriorityTest test = new PriorityTest();
+        test.testReadyOrder();
+        test.testAging();
+        test.testRequeuedInTurn();
+        test.testPriorityLevel();
+        test.testReadBudgetPriority();
+    }
+
+    public void testReadyOrder() {
+        NioScheduler scheduler = new NioScheduler();
+        NioCoSocket low = new NioCoSocket(scheduler), normal = new NioCoSocket(scheduler);
+        NioCoSocket high = new NioCoSocket(scheduler), high2 = new NioCoSocket(scheduler);
+        try {
+            scheduler.ready(low, PRIORITY_LOW);
+            scheduler.ready(normal, PRIORITY_NORMAL);
+            scheduler.ready(high, PRIORITY_HIGH);
+            scheduler.ready(high2, PRIORITY_HIGH);
+
+            assertSame(high, scheduler.pollReady(1));
+            assertSame(high2, scheduler.pollReady(1));
+            assertSame(normal, scheduler.pollReady(1));
+            assertSame(low, scheduler.pollReady(1));
+            assertNull(scheduler.pollReady(1));
+        } finally {
+            low.close();
+            normal.close();
+            high.close();
+            high2.close();
+        }
+    }
+
+    public void testAging() {
+        NioScheduler scheduler = new NioScheduler();
+        NioCoSocket low = new NioCoSocket(scheduler), high = new NioCoSocket(scheduler);
+        try {
+            // Queued at the turn 0
+            scheduler.ready(low, PRIORITY_LOW);
+            long turn = 1;
+            for (; turn < NioScheduler.AGING_TURNS; ++turn) {
+                scheduler.ready(high, PRIORITY_HIGH);
+                assertSame(high, scheduler.pollReady(turn));
+            }
+            // Aged: served before the high priority one
+            scheduler.ready(high, PRIORITY_HIGH);
+            assertSame(low, scheduler.pollReady(turn));
+            assertSame(high, scheduler.pollReady(turn));
+            assertNull(scheduler.pollReady(turn));
+        } finally {
+            low.close();
+            high.close();
+        }
+    }
+
+    /** The socket re-queued in the current run turn waits for the next turn, even if
+     * its priority is higher.
+     */
+    public void testRequeuedInTurn() {
+        NioScheduler scheduler = new NioScheduler();
+        NioCoSocket normal = new NioCoSocket(scheduler), high = new NioCoSocket(scheduler);
+        try {
+            scheduler.ready(normal, PRIORITY_NORMAL);
+            // Re-queued when resumed in the turn 1
+            scheduler.ready(high, PRIORITY_HIGH);
+            high.readyTurn = 1;
+            assertSame(normal, scheduler.pollReady(1));
+            assertNull(scheduler.pollReady(1));
+            assertSame(high, scheduler.pollReady(2));
+            assertNull(scheduler.pollReady(2));
+        } finally {
+            normal.close();
+            high.close();
+        }
+    }
+
+    public void testPriorityLevel() {
+        NioScheduler scheduler = new NioScheduler();
+        try {
+            scheduler.fork(c -> {}, null, PRIORITY_LEVELS);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        CoContext context = scheduler.fork(c -> {}, null, PRIORITY_HIGH);
+        assertEquals(PRIORITY_HIGH, context.getPriority());
+    }
+
+    /** The coroutine that yields at the read budget is queued in its priority. */
+    public void testReadBudgetPriority() throws Exception {
+        int port = 9978;
+        NioScheduler scheduler = new NioScheduler("CoReadBudget");
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            AtomicReference<Throwable> cause = new AtomicReference<>();
+            NioCoSocket[] sockets = new NioCoSocket[2];
+            SocketChannel[] peers = new SocketChannel[2];
+            int[] priorities = {PRIORITY_LOW, PRIORITY_HIGH};
+            int reads = NioCoSocket.READ_BUDGET + 1;
+
+            for (int i = 0; i < sockets.length; ++i) {
+                SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+                ch.configureBlocking(false);
+                peers[i] = server.accept();
+                peers[i].write(ByteBuffer.wrap(new byte[reads]));
+                NioCoSocket socket = sockets[i] = new NioCoSocket(ch, scheduler);
+                scheduler.register(socket);
+            }
+            Thread.sleep(100);
+
+            // The low priority reader over the budget first
+            for (int i = 0; i < sockets.length; ++i) {
+                CoSocket socket = sockets[i];
+                scheduler.fork(c -> {
+                    try {
+                        ByteBuffer dst = ByteBuffer.allocate(1);
+                        for (int j = 0; j < reads; ++j) {
+                            dst.clear();
+                            assertEquals(1, socket.read(c, dst));
+                        }
+                    } catch (Throwable e) {
+                        cause.set(e);
+                    }
+                }, null, priorities[i]);
+            }
+            if (cause.get() != null) throw new AssertionError(cause.get());
+
+            assertSame(sockets[1], scheduler.pollReady(1));
+            assertSame(sockets[0], scheduler.pollReady(1));
+            assertNull(scheduler.pollReady(1));
+            for (int i = 0; i < sockets.length; ++i) {
+                sockets[i].close();
+                peers[i].close();
+            }
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
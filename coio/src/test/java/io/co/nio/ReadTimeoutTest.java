@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Coroutine;
+import io.co.*;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-24
+ *
+ */
+public class ReadTimeoutTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        ReadTimeoutTest test = new ReadTimeoutTest();
+        test.testReadTimeout();
+        test.testReadNotTimeout();
+    }
+
+    /** Server replies after 3 soTimeouts: the client times out 2 times, then reads
+     * the reply in the same socket.
+     */
+    public void testReadTimeout() throws Exception {
+        int port = 9965, soTimeout = 100;
+        AtomicInteger timeouts = new AtomicInteger();
+        NioCoServerSocket server = new NioCoServerSocket();
+        Scheduler scheduler = server.getScheduler();
+        server.bind(port);
+
+        Coroutine serverCo = s -> {
+            CoSocket socket = server.accept(s);
+            Coroutine connCo = c -> {
+                try {
+                    scheduler.await(c, soTimeout * 2 + soTimeout / 2);
+                    socket.write(c, 1);
+                    socket.flush(c);
+                } finally {
+                    socket.close();
+                }
+            };
+            scheduler.fork(connCo, socket);
+            server.close();
+        };
+        scheduler.fork(serverCo, server);
+
+        CoSocket client = new NioCoSocket(scheduler);
+        client.setSoTimeout(soTimeout);
+        Coroutine clientCo = c -> {
+            try {
+                client.connect(c, port);
+                while (true) {
+                    long ts = System.currentTimeMillis();
+                    try {
+                        int b = client.read(c);
+                        assertEquals(1, b);
+                        break;
+                    } catch (SocketTimeoutException e) {
+                        long te = System.currentTimeMillis();
+                        assertTrue(te - ts >= soTimeout);
+                        timeouts.incrementAndGet();
+                    }
+                }
+            } finally {
+                client.close();
+                scheduler.shutdown();
+            }
+        };
+        scheduler.fork(clientCo, client);
+        scheduler.run();
+
+        info("read timeouts %s", timeouts.get());
+        assertEquals(2, timeouts.get());
+    }
+
+    /** Many short reads in the soTimeout: the read timer is re-armed lazily and never
+     * times out a read that has the data in the soTimeout.
+     */
+    public void testReadNotTimeout() throws IOException {
+        int port = 9966, soTimeout = 50, n = 20;
+        AtomicInteger reads = new AtomicInteger();
+        NioCoServerSocket server = new NioCoServerSocket();
+        Scheduler scheduler = server.getScheduler();
+        server.bind(port);
+
+        Coroutine serverCo = s -> {
+            CoSocket socket = server.accept(s);
+            Coroutine connCo = c -> {
+                try {
+                    for (int i = 0; i < n; ++i) {
+                        scheduler.await(c, soTimeout / 5);
+                        socket.write(c, i);
+                        socket.flush(c);
+                    }
+                } finally {
+                    socket.close();
+                }
+            };
+            scheduler.fork(connCo, socket);
+            server.close();
+        };
+        scheduler.fork(serverCo, server);
+
+        CoSocket client = new NioCoSocket(scheduler);
+        client.setSoTimeout(soTimeout);
+        Coroutine clientCo = c -> {
+            try {
+                client.connect(c, port);
+                for (int i = 0; i < n; ++i) {
+                    assertEquals(i, client.read(c));
+                    reads.incrementAndGet();
+                }
+                assertEquals(-1, client.read(c));
+            } finally {
+                client.close();
+                scheduler.shutdown();
+            }
+        };
+        scheduler.fork(clientCo, client);
+        scheduler.run();
+
+        assertEquals(n, reads.get());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
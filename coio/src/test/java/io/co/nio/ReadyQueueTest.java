@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Coroutine;
+import io.co.*;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ReadyQueueTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        new ReadyQueueTest().testHeavyAndLight();
+    }
+
+    /** A heavy client streams data that the server keeps finding in its buffer, and
+     * the light clients ping-pong with the server at the same time: the heavy reader
+     * yields after its read budget, so the light ones aren't blocked till it ends.
+     */
+    public void testHeavyAndLight() throws Exception {
+        int port = 9969, lights = 32, pings = 100;
+        long heavyBytes = 64L << 20;
+        NioCoServerSocket server = new NioCoServerSocket();
+        NioScheduler scheduler = server.getScheduler();
+        AtomicLong maxPing = new AtomicLong();
+        AtomicLong heavyRead = new AtomicLong();
+        AtomicInteger done = new AtomicInteger();
+        server.bind(port);
+
+        Coroutine serverCo = s -> {
+            for (int i = 0; i < lights + 1; ++i) {
+                CoSocket socket = server.accept(s);
+                Coroutine connCo = c -> {
+                    try {
+                        int b = socket.read(c);
+                        if (b == 'H') {
+                            byte[] buf = new byte[512];
+                            for (int n; (n = socket.read(c, buf)) != -1; ) {
+                                heavyRead.addAndGet(n);
+                            }
+                        } else {
+                            for (; b != -1; b = socket.read(c)) {
+                                socket.write(c, b);
+                                socket.flush(c);
+                            }
+                        }
+                    } finally {
+                        socket.close();
+                    }
+                };
+                scheduler.fork(connCo, socket);
+            }
+            server.close();
+        };
+        scheduler.fork(serverCo, server);
+
+        Thread client = new Thread(() -> {
+            NioScheduler clientScheduler = new NioScheduler("CoClient");
+            CoSocket heavy = new NioCoSocket(clientScheduler);
+            Coroutine heavyCo = c -> {
+                try {
+                    heavy.connect(c, port);
+                    heavy.write(c, 'H');
+                    byte[] buf = new byte[64 << 10];
+                    for (long n = 0; n < heavyBytes; n += buf.length) {
+                        heavy.write(c, buf);
+                    }
+                    heavy.flush(c);
+                } finally {
+                    heavy.close();
+                    if (done.incrementAndGet() == lights + 1) clientScheduler.shutdown();
+                }
+            };
+            clientScheduler.fork(heavyCo, heavy);
+
+            for (int i = 0; i < lights; ++i) {
+                CoSocket light = new NioCoSocket(clientScheduler);
+                Coroutine lightCo = c -> {
+                    try {
+                        light.connect(c, port);
+                        for (int j = 0; j < pings; ++j) {
+                            long ts = System.nanoTime();
+                            light.write(c, 'L');
+                            light.flush(c);
+                            assertEquals('L', light.read(c));
+                            long time = System.nanoTime() - ts;
+                            maxPing.accumulateAndGet(time, Math::max);
+                        }
+                    } finally {
+                        light.close();
+                        if (done.incrementAndGet() == lights + 1) clientScheduler.shutdown();
+                    }
+                };
+                clientScheduler.fork(lightCo, light);
+            }
+            clientScheduler.run();
+        }, "CoClient");
+        client.start();
+
+        Thread killer = new Thread(() -> {
+            try {
+                client.join();
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            scheduler.shutdown();
+        });
+        killer.start();
+        scheduler.run();
+        killer.join();
+
+        info("heavy read %sMB, max ping %sus", heavyRead.get() >> 20, maxPing.get() / 1000);
+        assertEquals(heavyBytes, heavyRead.get());
+        assertEquals(lights + 1, done.get());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import com.offbynull.coroutines.user.Coroutine;
+import io.co.*;
+import io.co.util.RuntimeUtils;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-20
+ *
+ */
+public class SchedulerGroupTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        SchedulerGroupTest test = new SchedulerGroupTest();
+        test.testRoundRobin();
+        test.testLeastConnections();
+        test.testReusePort();
+    }
+
+    public void testRoundRobin() throws Exception {
+        testGroup(9962, false);
+    }
+
+    public void testLeastConnections() throws Exception {
+        testGroup(9963, true);
+    }
+
+    public void testReusePort() throws Exception {
+        if (!RuntimeUtils.isLinux() || !NioCoServerSocket.isReusePortSupported()) {
+            return;
+        }
+
+        int port = 9964, size = 4, conns = 256;
+        NioSchedulerGroup group = new NioSchedulerGroup("CoListener", size);
+        NioCoServerSocket[] servers = group.bind(port);
+        AtomicInteger handled = new AtomicInteger();
+        assertEquals(size, servers.length);
+
+        for (NioCoServerSocket server : servers) {
+            Scheduler scheduler = server.getScheduler();
+            Coroutine serverCo = s -> {
+                while (true) {
+                    CoSocket socket = server.accept(s);
+                    assertTrue(socket.getScheduler() == scheduler);
+                    Coroutine connCo = c -> {
+                        try {
+                            int b = socket.read(c);
+                            socket.write(c, b);
+                            socket.flush(c);
+                            handled.incrementAndGet();
+                        } finally {
+                            socket.close();
+                        }
+                    };
+                    scheduler.fork(connCo, socket);
+                }
+            };
+            scheduler.fork(serverCo, server);
+        }
+
+        NioScheduler scheduler = new NioScheduler("CoClient");
+        AtomicInteger counter = new AtomicInteger();
+        for (int i = 0; i < conns; ++i) {
+            CoSocket socket = new NioCoSocket(scheduler);
+            Coroutine co = c -> {
+                try {
+                    socket.connect(c, port);
+                    socket.write(c, 1);
+                    socket.flush(c);
+                    int r = socket.read(c);
+                    if (r != 1) throw new AssertionError("client: 1 neq " + r);
+                } finally {
+                    socket.close();
+                    if (counter.incrementAndGet() == conns) scheduler.shutdown();
+                }
+            };
+            scheduler.fork(co, socket);
+        }
+        scheduler.run();
+
+        long accepted = 0;
+        for (int i = 0; i < size; ++i) {
+            NioScheduler s = group.get(i);
+            info("%s: accepted %s", s.getName(), s.getAcceptedCount());
+            accepted += s.getAcceptedCount();
+        }
+        group.shutdown();
+        group.awaitTermination();
+        assertTrue(group.isTerminated());
+        assertEquals(conns, accepted);
+        assertEquals(conns, handled.get());
+    }
+
+    void testGroup(int port, boolean leastConnections) throws Exception {
+        int size = 4, conns = 256;
+        NioSchedulerGroup group = new NioSchedulerGroup("CoWorker", size, leastConnections);
+        NioCoServerSocket server = new NioCoServerSocket(group);
+        NioScheduler boss = server.getScheduler();
+        AtomicInteger handled = new AtomicInteger();
+        server.bind(port);
+
+        Coroutine serverCo = s -> {
+            for (int i = 0; i < conns; ++i) {
+                CoSocket socket = server.accept(s);
+                Scheduler worker = socket.getScheduler();
+                assertTrue(worker != boss);
+                Coroutine connCo = c -> {
+                    try {
+                        int b = socket.read(c);
+                        assertTrue(worker.inScheduler());
+                        socket.write(c, b);
+                        socket.flush(c);
+                        handled.incrementAndGet();
+                    } finally {
+                        socket.close();
+                    }
+                };
+                worker.fork(connCo, socket);
+            }
+            server.close();
+        };
+        boss.fork(serverCo, server);
+
+        Thread client = new Thread(() -> {
+            NioScheduler scheduler = new NioScheduler("CoClient");
+            AtomicInteger counter = new AtomicInteger();
+            for (int i = 0; i < conns; ++i) {
+                CoSocket socket = new NioCoSocket(scheduler);
+                int b = i & 0x7f;
+                Coroutine co = c -> {
+                    try {
+                        socket.connect(c, port);
+                        socket.write(c, b);
+                        socket.flush(c);
+                        int r = socket.read(c);
+                        if (r != b) throw new AssertionError("client: " + b + " neq " + r);
+                    } finally {
+                        socket.close();
+                        if (counter.incrementAndGet() == conns) scheduler.shutdown();
+                    }
+                };
+                scheduler.fork(co, socket);
+            }
+            scheduler.run();
+        }, "CoClient");
+        client.start();
+
+        long ts = System.currentTimeMillis();
+        boss.run();
+        client.join();
+        group.shutdown();
+        group.awaitTermination();
+        long te = System.currentTimeMillis();
+        info("%s(leastConnections %s): conns %s, time %sms", group, leastConnections,
+                conns, te - ts);
+
+        assertTrue(group.isTerminated());
+        assertEquals(conns, handled.get());
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
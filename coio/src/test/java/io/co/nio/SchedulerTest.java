@@ -19,7 +19,10 @@ package io.co.nio;
 import com.offbynull.coroutines.user.Coroutine;
 import io.co.Scheduler;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.co.util.LogUtils.*;
 
@@ -33,6 +36,13 @@ public class SchedulerTest {
         test.testAwait(10, 100);
         test.testAwait(100, 10);
         test.testAwait(1000, 1);
+        test.testAwait(500, TimeUnit.MICROSECONDS, 1000);
+        test.testAwait(2500, TimeUnit.MICROSECONDS, 400);
+
+        test.testPeriodic(true);
+        test.testPeriodic(false);
+        test.testSpin(0);
+        test.testSpin(100);
 
         test.testCompute(1, false);
         test.testCompute(2, false);
@@ -65,6 +75,98 @@ public class SchedulerTest {
         info("await(%sms) times %s, time %sms", millis, times, tb - ta);
     }
 
+    void testAwait(long time, TimeUnit unit, int times) {
+        Scheduler scheduler = new NioScheduler();
+        long min = unit.toNanos(time);
+        Coroutine co = c -> {
+            for (int i = 0; i < times; ++i) {
+                long ts = System.nanoTime();
+                scheduler.await(c, time, unit);
+                long te = System.nanoTime();
+                if (te - ts < min) {
+                    throw new AssertionError("await early: " + (te - ts) + "ns < " + min + "ns");
+                }
+            }
+            scheduler.shutdown();
+        };
+        long ta = System.nanoTime();
+        scheduler.fork(co);
+        scheduler.run();
+        long tb = System.nanoTime();
+        info("await(%s %s) times %s, avg %sus", time, unit, times, (tb - ta) / times / 1000);
+    }
+
+    void testPeriodic(boolean fixedRate) {
+        NioScheduler scheduler = new NioScheduler();
+        int times = 100;
+        long period = 5, work = 2;
+        AtomicInteger counter = new AtomicInteger();
+        long ta = System.nanoTime();
+        Runnable task = () -> {
+            // Busy work that shifts the fixed-delay runs only
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(work);
+            while (System.nanoTime() < deadline);
+            if (counter.incrementAndGet() == times) {
+                scheduler.shutdown();
+            }
+        };
+        if (fixedRate) {
+            scheduler.scheduleAtFixedRate(task, 0, period, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.scheduleWithFixedDelay(task, 0, period, TimeUnit.MILLISECONDS);
+        }
+        scheduler.run();
+        long tb = System.nanoTime();
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(tb - ta);
+        long expect = (times - 1) * (fixedRate? period: period + work);
+        info("periodic(fixedRate %s) times %s, time %sms, expect %sms", fixedRate,
+                times, millis, expect);
+        if (millis < expect) {
+            throw new AssertionError("periodic early: " + millis + "ms < " + expect + "ms");
+        }
+        if (fixedRate && millis > expect + period * 10) {
+            throw new AssertionError("fixed rate drift: " + millis + "ms, expect " + expect + "ms");
+        }
+    }
+
+    /** Dispatch tasks to the scheduler from another thread one by one, and check
+     * the dispatch latency when the scheduler spins or blocks in select.
+     */
+    void testSpin(long spinMicros) {
+        NioScheduler scheduler = new NioScheduler();
+        int times = 10000;
+        scheduler.setSpinMicros(spinMicros);
+        Thread thread = new Thread(scheduler, "CoSpin");
+        thread.start();
+
+        long total = 0;
+        for (int i = 0; i < times; ++i) {
+            CountDownLatch latch = new CountDownLatch(1);
+            long ts = System.nanoTime();
+            scheduler.dispatch(latch::countDown);
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            total += System.nanoTime() - ts;
+        }
+        scheduler.shutdown();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+
+        info("spin(%sus) times %s, avg latency %sns, spin time %sms, spin hits %s", spinMicros,
+                times, total / times, TimeUnit.NANOSECONDS.toMillis(scheduler.getSpinTime()),
+                scheduler.getSpinHits());
+        if (spinMicros == 0 && scheduler.getSpinTime() != 0) {
+            throw new AssertionError("Spin when spinMicros 0");
+        }
+    }
+
     void testCompute(int n, boolean testFail) {
         info("testCompute(): calc %s! when test-fail %s", n, testFail);
         Scheduler scheduler = new NioScheduler();
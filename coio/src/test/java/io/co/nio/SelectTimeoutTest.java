@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class SelectTimeoutTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        SelectTimeoutTest test = new SelectTimeoutTest();
+        test.testTimerWait();
+    }
+
+    /** A pending timer waits in select(), instead of spinning by selectNow() in the
+     * tick before it when the loop is woken up in that tick, e.g. by the tasks.
+     */
+    public void testTimerWait() throws Exception {
+        for (int i = 0; i < 5; ++i) {
+            NioScheduler scheduler = new NioScheduler("CoSelectTimeout");
+            int tasks = 40;
+            Thread dispatcher = new Thread(() -> {
+                try {
+                    for (int j = 0; j < tasks && !scheduler.isShutdown(); ++j) {
+                        Thread.sleep(0, 250000);
+                        scheduler.dispatch(() -> {});
+                    }
+                } catch (InterruptedException e) {
+                    // exit
+                }
+            }, "CoSelectTimeout-dispatcher");
+            long start = System.nanoTime();
+            scheduler.schedule(scheduler::shutdown, 10, TimeUnit.MILLISECONDS);
+            dispatcher.start();
+            scheduler.run();
+            long time = System.nanoTime() - start;
+            dispatcher.join();
+
+            assertTrue(time >= TimeUnit.MILLISECONDS.toNanos(10));
+            // At most a selectNow() per wakeup by the tasks
+            long selectNows = scheduler.selectNows;
+            assertTrue("selectNows " + selectNows, selectNows <= tasks + 2);
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class SelectedKeySetTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        SelectedKeySetTest test = new SelectedKeySetTest();
+        test.testGrow();
+        test.testReset();
+        test.testFallback();
+        test.testInstalledRun();
+    }
+
+    public void testGrow() {
+        NioSelectedKeySet keySet = new NioSelectedKeySet();
+        int n = 2500;
+        assertEquals(1024, keySet.keys.length);
+        SelectionKey[] keys = new SelectionKey[n];
+        for (int i = 0; i < n; ++i) {
+            assertTrue(keySet.add(keys[i] = new TestKey()));
+        }
+        assertFalse(keySet.add(null));
+        assertEquals(n, keySet.size());
+        assertEquals(4096, keySet.keys.length);
+        Iterator<SelectionKey> it = keySet.iterator();
+        for (int i = 0; i < n; ++i) {
+            assertSame(keys[i], it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /** The processed keys are nulled by the scheduler, and the rest by reset(). */
+    public void testReset() {
+        NioSelectedKeySet keySet = new NioSelectedKeySet();
+        for (int i = 0; i < 10; ++i) {
+            keySet.add(new TestKey());
+        }
+        keySet.reset(3);
+        assertEquals(0, keySet.size());
+        for (int i = 3; i < keySet.keys.length; ++i) {
+            assertNull(keySet.keys[i]);
+        }
+        assertFalse(keySet.iterator().hasNext());
+        SelectionKey key = new TestKey();
+        keySet.add(key);
+        assertSame(key, keySet.keys[0]);
+    }
+
+    /** Not installed if "io.co.selector.optimize" is false, then the selector keeps
+     * its own selected keys.
+     */
+    public void testFallback() throws Exception {
+        try (Selector selector = Selector.open()) {
+            assertNull(NioSelectedKeySet.install(selector, false));
+            assertFalse(selector.selectedKeys() instanceof NioSelectedKeySet);
+        }
+    }
+
+    /** The scheduler processes the keys selected into the installed set. It's only
+     * installed when "sun.nio.ch" is accessible, e.g. JDK 8, or JDK 9+ with
+     * "--add-opens java.base/sun.nio.ch=ALL-UNNAMED".
+     */
+    public void testInstalledRun() throws Exception {
+        int port = 9982;
+        NioScheduler scheduler = new NioScheduler("CoSelectedKeys");
+        NioSelectedKeySet keySet = scheduler.selectedKeys;
+        if (keySet == null) {
+            assertFalse(scheduler.selector.selectedKeys() instanceof NioSelectedKeySet);
+        } else {
+            assertSame(keySet, scheduler.selector.selectedKeys());
+        }
+        scheduler.attachCurrentThread();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress(port));
+            ch.configureBlocking(false);
+            SocketChannel peer = server.accept();
+            NioCoSocket socket = new NioCoSocket(ch, scheduler);
+            scheduler.register(socket);
+
+            // Readable but nobody waits: the selected key disables the read interest
+            socket.enableOps(SelectionKey.OP_READ);
+            peer.write(ByteBuffer.wrap(new byte[]{1}));
+            int[] ops = {-1};
+            scheduler.schedule(() -> {
+                ops[0] = socket.interestOps();
+                socket.close();
+                scheduler.shutdown();
+            }, 100);
+            scheduler.run();
+            assertTrue(scheduler.isTerminated());
+            assertEquals(0, ops[0]);
+            if (keySet != null) {
+                assertEquals(0, keySet.size());
+                assertNull(keySet.keys[0]);
+            }
+            peer.close();
+        }
+    }
+
+    static class TestKey extends SelectionKey {
+
+        @Override
+        public SelectableChannel channel() {
+            return null;
+        }
+
+        @Override
+        public Selector selector() {
+            return null;
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public int interestOps() {
+            return 0;
+        }
+
+        @Override
+        public SelectionKey interestOps(int ops) {
+            return this;
+        }
+
+        @Override
+        public int readyOps() {
+            return 0;
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
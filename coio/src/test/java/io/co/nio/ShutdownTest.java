@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.co.nio.ChanSlotTest.*;
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ShutdownTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        ShutdownTest test = new ShutdownTest();
+        test.testForceClose();
+        test.testDrain();
+        test.testIllegalArgs();
+    }
+
+    public void testForceClose() throws Exception {
+        NioScheduler scheduler = new NioScheduler("CoForce", 16, 1000);
+        TestChannel[] channels = new TestChannel[10];
+        Thread thread = start(scheduler, channels);
+
+        long ts = System.nanoTime();
+        CompletableFuture<Void> future = scheduler.shutdownGracefully(50, 300,
+                TimeUnit.MILLISECONDS);
+        future.get(5, TimeUnit.SECONDS);
+        long te = System.nanoTime();
+        thread.join();
+        info("force close: time %sms", (te - ts) / 1000000);
+
+        assertTrue(te - ts >= TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(scheduler.isTerminated());
+        assertSame(future, scheduler.terminationFuture());
+        for (TestChannel ch : channels) {
+            assertFalse(ch.isOpen());
+        }
+    }
+
+    public void testDrain() throws Exception {
+        NioScheduler scheduler = new NioScheduler("CoDrain", 16, 1000);
+        TestChannel[] channels = new TestChannel[10];
+        Thread thread = start(scheduler, channels);
+
+        long ts = System.nanoTime();
+        CompletableFuture<Void> future = scheduler.shutdownGracefully(100, 10000,
+                TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertFalse(future.isDone());
+        scheduler.dispatch(() -> {
+            for (TestChannel ch : channels) {
+                ch.close();
+            }
+        });
+        future.get(5, TimeUnit.SECONDS);
+        long te = System.nanoTime();
+        thread.join();
+        info("drain: time %sms", (te - ts) / 1000000);
+
+        // Terminated after the quiet period, not at the timeout
+        assertTrue(te - ts >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue(te - ts < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(scheduler.isTerminated());
+        assertEquals(0, scheduler.getConnections());
+    }
+
+    public void testIllegalArgs() {
+        NioScheduler scheduler = new NioScheduler("CoArgs");
+        try {
+            scheduler.shutdownGracefully(-1, 100, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Negative quiet period
+        }
+        try {
+            scheduler.shutdownGracefully(200, 100, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Timeout less than quiet period
+        }
+        assertFalse(scheduler.isShutdown());
+    }
+
+    static Thread start(NioScheduler scheduler, TestChannel[] channels)
+            throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.attachCurrentThread();
+                for (int i = 0; i < channels.length; ++i) {
+                    channels[i] = register(scheduler);
+                }
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            scheduler.run();
+        }, scheduler.getName());
+        thread.start();
+        // Wait for the channels registered
+        while (scheduler.getConnections() < channels.length) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class TaskQueueTest extends TestCase {
+
+    public static void main(String[] args) {
+        TaskQueueTest test = new TaskQueueTest();
+        test.testOverflow();
+    }
+
+    /** The tasks beyond the task queue capacity spill into the overflow queue, and
+     * all run in order without failing the scheduler.
+     */
+    public void testOverflow() {
+        NioScheduler scheduler = new NioScheduler("CoTaskQueue");
+        int capacity = scheduler.syncQueue.capacity();
+        int spills = 100, total = capacity + spills;
+        int[] seq = new int[total];
+        int[] next = new int[1];
+
+        // Dispatched from this thread before the scheduler attached it
+        for (int i = 0; i < total; ++i) {
+            final int id = i;
+            scheduler.dispatch(() -> seq[next[0]++] = id);
+        }
+        assertEquals(spills, scheduler.getTaskOverflows());
+        // Follows the spilled tasks even though the task queue has room
+        scheduler.syncQueue.poll().run();
+        scheduler.dispatch(scheduler::shutdown);
+        assertEquals(spills + 1, scheduler.getTaskOverflows());
+
+        scheduler.run();
+        assertTrue(scheduler.isTerminated());
+        assertEquals(total, next[0]);
+        for (int i = 0; i < total; ++i) {
+            assertEquals(i, seq[i]);
+        }
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.nio;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-23
+ *
+ */
+public class TimerWheelTest extends TestCase {
+
+    static final Runnable NOOP = () -> {};
+
+    public static void main(String[] args) {
+        TimerWheelTest test = new TimerWheelTest();
+        test.testExpire();
+        test.testCancel();
+        test.benchArmedCost();
+    }
+
+    public void testExpire() {
+        NioScheduler scheduler = new NioScheduler();
+        NioTimerWheel wheel = new NioTimerWheel(0L, 1L);
+        Random random = new Random(1);
+        List<NioCoTimer> timers = new ArrayList<>();
+
+        int n = 10000;
+        long max = 1L << 20;
+        for (int i = 0; i < n; ++i) {
+            NioCoTimer timer = newTimer(scheduler, random.nextInt((int)max));
+            wheel.add(timer);
+            timers.add(timer);
+        }
+        assertEquals(n, wheel.size());
+
+        List<NioCoTimer> fired = new ArrayList<>();
+        long now = 0;
+        while (wheel.size() > 0) {
+            long timeout = wheel.nextTimeout(now);
+            assertTrue(timeout >= 0 && timeout < max);
+            final long last = now;
+            now += Math.max(1, random.nextInt((int)timeout + 1));
+            final long time = now;
+            wheel.expire(now, t -> {
+                // Never early and never late
+                assertTrue(t.runat() <= time);
+                assertTrue(t.runat() > last);
+                fired.add(t);
+            });
+        }
+        assertEquals(n, fired.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextTimeout(now));
+        for (NioCoTimer timer: timers) {
+            assertEquals(-1, timer.bucket);
+        }
+    }
+
+    public void testCancel() {
+        NioScheduler scheduler = new NioScheduler();
+        NioTimerWheel wheel = new NioTimerWheel(0L, 1L);
+        NioCoTimer a = newTimer(scheduler, 10), b = newTimer(scheduler, 1000);
+        NioCoTimer c = newTimer(scheduler, 100000), d = newTimer(scheduler, 0);
+        wheel.add(a);
+        wheel.add(b);
+        wheel.add(c);
+        wheel.add(d);
+        assertEquals(0, wheel.nextTimeout(0));
+        assertTrue(wheel.remove(d));
+        assertFalse(wheel.remove(d));
+        assertEquals(10, wheel.nextTimeout(0));
+        assertTrue(wheel.remove(a));
+        assertTrue(wheel.remove(c));
+        assertEquals(1, wheel.size());
+
+        List<NioCoTimer> fired = new ArrayList<>();
+        assertEquals(0, wheel.expire(999, fired::add));
+        assertEquals(1, wheel.nextTimeout(999));
+        assertEquals(1, wheel.expire(1000, fired::add));
+        assertSame(b, fired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    /** The loop cost by the armed timers count, a benchmark only run by main(). */
+    public void benchArmedCost() {
+        NioScheduler scheduler = new NioScheduler();
+        int turns = 100000;
+
+        for (int armed = 1000; armed <= 1000000; armed *= 10) {
+            NioTimerWheel wheel = new NioTimerWheel(0L, 1L);
+            Random random = new Random(armed);
+            // Armed but not fired in the test turns, e.g. read timeouts
+            for (int i = 0; i < armed; ++i) {
+                wheel.add(newTimer(scheduler, turns + 1 + random.nextInt(3600000)));
+            }
+
+            long ts = System.nanoTime();
+            int fired = 0;
+            for (int now = 1; now <= turns; ++now) {
+                fired += wheel.expire(now, t -> {});
+                wheel.nextTimeout(now);
+            }
+            long te = System.nanoTime();
+            assertEquals(0, fired);
+            assertEquals(armed, wheel.size());
+            info("armed timers %7d: loop cost %sns/turn", armed, (te - ts) / turns);
+        }
+    }
+
+    static NioCoTimer newTimer(NioScheduler scheduler, long runat) {
+        NioCoTimer timer = new NioCoTimer(scheduler, NOOP, 0, 0);
+        timer.runat = runat;
+        return timer;
+    }
+
+}
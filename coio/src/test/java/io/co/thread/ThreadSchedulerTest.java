@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.thread;
+
+import com.offbynull.coroutines.user.Coroutine;
+import io.co.*;
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-25
+ *
+ */
+public class ThreadSchedulerTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        ThreadSchedulerTest test = new ThreadSchedulerTest();
+        test.testEcho();
+        test.testReadTimeout();
+        test.testSchedule();
+    }
+
+    public void testEcho() throws Exception {
+        int port = 9970, conns = 64, requests = 10;
+        ThreadScheduler scheduler = new ThreadScheduler("CoThread");
+        CoServerSocket server = new ThreadCoServerSocket(scheduler);
+        server.bind(port);
+        AtomicInteger handled = new AtomicInteger();
+        AtomicReference<Throwable> cause = new AtomicReference<>();
+
+        Coroutine serverCo = s -> {
+            while (!scheduler.isShutdown()) {
+                CoSocket socket = server.accept(s);
+                Coroutine connCo = c -> {
+                    try {
+                        assertTrue(scheduler.inScheduler());
+                        byte[] b = new byte[256];
+                        while (true) {
+                            int n = socket.readFully(c, b);
+                            socket.write(c, b, 0, n);
+                            socket.flush(c);
+                        }
+                    } catch (EOFException e) {
+                        handled.incrementAndGet();
+                    } finally {
+                        socket.close();
+                    }
+                };
+                scheduler.fork(connCo, socket);
+            }
+        };
+        scheduler.fork(serverCo, server);
+
+        ThreadScheduler client = new ThreadScheduler("CoThreadClient");
+        AtomicInteger counter = new AtomicInteger();
+        long ts = System.currentTimeMillis();
+        for (int i = 0; i < conns; ++i) {
+            CoSocket socket = new ThreadCoSocket(client);
+            byte v = (byte)i;
+            Coroutine co = c -> {
+                try {
+                    socket.connect(c, port);
+                    byte[] b = new byte[256];
+                    for (int j = 0; j < requests; ++j) {
+                        b[j] = v;
+                        socket.write(c, b);
+                        socket.flush(c);
+                        socket.readFully(c, b);
+                        if (b[j] != v) throw new AssertionError(v + " neq " + b[j]);
+                    }
+                } catch (Throwable e) {
+                    cause.set(e);
+                } finally {
+                    socket.close();
+                    if (counter.incrementAndGet() == conns) client.shutdown();
+                }
+            };
+            client.fork(co, socket);
+        }
+        client.run();
+        long te = System.currentTimeMillis();
+        info("%s(virtual %s): conns %s, time %sms", client.getName(), client.isVirtual(),
+                conns, te - ts);
+
+        scheduler.shutdownGracefully(100, 5000, TimeUnit.MILLISECONDS)
+                .get(10, TimeUnit.SECONDS);
+        assertNull(cause.get());
+        assertTrue(client.isTerminated());
+        assertTrue(scheduler.isTerminated());
+        assertFalse(server.isOpen());
+        assertEquals(conns, handled.get());
+        assertEquals(0, scheduler.getConnections());
+    }
+
+    public void testReadTimeout() throws Exception {
+        int port = 9971;
+        ThreadScheduler scheduler = new ThreadScheduler("CoTimeout");
+        CoServerSocket server = new ThreadCoServerSocket(scheduler);
+        server.bind(port);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Throwable> cause = new AtomicReference<>();
+
+        Coroutine serverCo = s -> {
+            CoSocket socket = server.accept(s);
+            socket.setSoTimeout(100);
+            try {
+                socket.read(s);
+            } catch (Throwable e) {
+                cause.set(e);
+            } finally {
+                socket.close();
+                latch.countDown();
+            }
+        };
+        scheduler.fork(serverCo, server);
+
+        CoSocket socket = new ThreadCoSocket(scheduler);
+        scheduler.fork(c -> {
+            socket.connect(c, port);
+            latch.await();
+        }, socket);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(cause.get() instanceof SocketTimeoutException);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5000));
+    }
+
+    public void testSchedule() throws Exception {
+        ThreadScheduler scheduler = new ThreadScheduler("CoTimer");
+        CountDownLatch latch = new CountDownLatch(3);
+        AtomicInteger runs = new AtomicInteger();
+
+        scheduler.schedule(() -> {
+            assertTrue(scheduler.inScheduler());
+            latch.countDown();
+        }, 10);
+        CoTimer periodic = scheduler.scheduleAtFixedRate(() -> {
+            if (runs.incrementAndGet() == 2) latch.countDown();
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        scheduler.fork(c -> {
+            long ts = System.nanoTime();
+            scheduler.await(c, 20);
+            assertTrue(System.nanoTime() - ts >= TimeUnit.MILLISECONDS.toNanos(20));
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        periodic.cancel();
+        assertTrue(periodic.isCanceled());
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5000));
+    }
+
+    static {
+        System.setProperty("io.co.debug", "false");
+    }
+
+}
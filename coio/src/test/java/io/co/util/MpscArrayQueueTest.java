@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021, little-pan, All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package io.co.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+
+import static io.co.util.LogUtils.*;
+
+/**
+ * @author little-pan
+ * @since 2021-04-21
+ *
+ */
+public class MpscArrayQueueTest extends TestCase {
+
+    public static void main(String[] args) throws Exception {
+        MpscArrayQueueTest test = new MpscArrayQueueTest();
+        test.testOfferPoll();
+        test.testProducers();
+    }
+
+    public void testOfferPoll() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(3);
+        assertEquals(4, queue.capacity());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(0, (int)queue.poll());
+        assertTrue(queue.offer(4));
+
+        int[] next = {1};
+        int n = queue.drain(e -> assertEquals(next[0]++, (int)e), 2);
+        assertEquals(2, n);
+        n = queue.drain(e -> assertEquals(next[0]++, (int)e), 10);
+        assertEquals(2, n);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        try {
+            queue.offer(null);
+            fail();
+        } catch (NullPointerException e) {
+            // ok
+        }
+    }
+
+    public void testProducers() throws Exception {
+        final int producers = 4, items = 100000;
+        MpscArrayQueue<long[]> queue = new MpscArrayQueue<>(1024);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        long ts = System.currentTimeMillis();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; ++p) {
+            final int id = p;
+            Thread t = new Thread(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < items; ++i) {
+                    long[] e = {id, i};
+                    while (!queue.offer(e)) {
+                        Thread.yield();
+                    }
+                }
+            }, "producer-" + p);
+            threads[p] = t;
+            t.start();
+        }
+        latch.countDown();
+
+        long[] last = new long[producers];
+        for (int p = 0; p < producers; ++p) last[p] = -1;
+        int total = 0;
+        while (total < producers * items) {
+            long[] e = queue.poll();
+            if (e == null) {
+                continue;
+            }
+            int id = (int)e[0];
+            // FIFO for each producer
+            assertEquals(last[id] + 1, e[1]);
+            last[id] = e[1];
+            ++total;
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(queue.isEmpty());
+        long te = System.currentTimeMillis();
+        info("producers %s, items %s: time %sms", producers, total, te - ts);
+    }
+
+}